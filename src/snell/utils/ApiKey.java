@@ -30,6 +30,8 @@ import com.google.common.base.Supplier;
 public final class ApiKey 
   extends KeyBase {
 
+  private static final Probe GENERATE = Probe.APIKEY_GENERATE;
+
   ApiKey(byte[] key, int size) {
     super(key, size);
   }
@@ -68,9 +70,14 @@ public final class ApiKey
    * bytes, generating an hmac, then hex encoding those.
    */ 
   public String generateNext() {
-    int len = Math.min(20, size);
-    byte[] buf = hmac(randomBytes(len));
-    return encodeHexString(buf);
+    long start = GENERATE.begin();
+    try {
+      int len = Math.min(20, size);
+      byte[] buf = hmac(randomBytes(len));
+      return encodeHexString(buf);
+    } finally {
+      GENERATE.end(start, alg, size, key);
+    }
   }
   
   public Supplier<String> asSupplier() {
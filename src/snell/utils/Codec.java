@@ -0,0 +1,34 @@
+package snell.utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Compact binary encoding for a single value. Writes are relative 
+ * to the buffer's position; reads are absolute so that views can 
+ * decode values in place without disturbing the buffer.
+ * 
+ * @see Codecs
+ */
+public interface Codec<T> {
+  
+  /**
+   * The number of bytes val encodes to
+   */
+  int size(T val);
+  
+  /**
+   * Writes val at the buffer's position, advancing it
+   */
+  void write(ByteBuffer buf, T val);
+  
+  /**
+   * Decodes the value encoded at the given absolute offset
+   */
+  T read(ByteBuffer buf, int offset);
+  
+  /**
+   * The number of bytes taken by the value encoded at the given 
+   * absolute offset
+   */
+  int length(ByteBuffer buf, int offset);
+}
@@ -0,0 +1,315 @@
+package snell.utils;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Throwables.propagate;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Standard Codecs and the composite codecs used to write Pairs, 
+ * Triples and IntPairs compactly into ByteBuffers and memory-mapped
+ * files. A pair is simply its two components back to back, so the 
+ * encoding carries no per-record overhead beyond what the component
+ * codecs need (a varint length for strings and byte arrays).
+ * 
+ * Encoded data can be read back either as objects, with read, or
+ * in place through PairView, TripleView and IntPairView without 
+ * materializing each record.
+ */
+public final class Codecs {
+
+  private Codecs() {}
+  
+  private static final int WINDOW = 8 << 20;
+  
+  public static final Codec<Integer> INT = 
+    new Codec<Integer>() {
+      public int size(Integer val) {
+        return 4;
+      }
+      public void write(ByteBuffer buf, Integer val) {
+        buf.putInt(val);
+      }
+      public Integer read(ByteBuffer buf, int offset) {
+        return buf.getInt(offset);
+      }
+      public int length(ByteBuffer buf, int offset) {
+        return 4;
+      }
+    };
+  
+  public static final Codec<Long> LONG = 
+    new Codec<Long>() {
+      public int size(Long val) {
+        return 8;
+      }
+      public void write(ByteBuffer buf, Long val) {
+        buf.putLong(val);
+      }
+      public Long read(ByteBuffer buf, int offset) {
+        return buf.getLong(offset);
+      }
+      public int length(ByteBuffer buf, int offset) {
+        return 8;
+      }
+    };
+  
+  public static final Codec<Double> DOUBLE = 
+    new Codec<Double>() {
+      public int size(Double val) {
+        return 8;
+      }
+      public void write(ByteBuffer buf, Double val) {
+        buf.putDouble(val);
+      }
+      public Double read(ByteBuffer buf, int offset) {
+        return buf.getDouble(offset);
+      }
+      public int length(ByteBuffer buf, int offset) {
+        return 8;
+      }
+    };
+  
+  /**
+   * Byte arrays are written as a varint of length + 1 followed by 
+   * the bytes, a zero length marking null
+   */
+  public static final Codec<byte[]> BYTES = 
+    new Codec<byte[]>() {
+      public int size(byte[] val) {
+        return val == null ? 1 : 
+          varintSize(val.length + 1) + val.length;
+      }
+      public void write(ByteBuffer buf, byte[] val) {
+        if (val == null) {
+          buf.put((byte)0);
+        } else {
+          putVarint(buf, val.length + 1);
+          buf.put(val);
+        }
+      }
+      public byte[] read(ByteBuffer buf, int offset) {
+        int n = getVarint(buf, offset);
+        if (n == 0)
+          return null;
+        byte[] val = new byte[n - 1];
+        ByteBuffer dup = buf.duplicate();
+        dup.position(offset + varintSize(n));
+        dup.get(val);
+        return val;
+      }
+      public int length(ByteBuffer buf, int offset) {
+        int n = getVarint(buf, offset);
+        return varintSize(n) + Math.max(0, n - 1);
+      }
+    };
+  
+  /**
+   * UTF-8 strings, framed like BYTES
+   */
+  public static final Codec<String> STRING = 
+    new Codec<String>() {
+      private final Charset utf8 = Charsets.UTF_8;
+      public int size(String val) {
+        return BYTES.size(val == null ? null : val.getBytes(utf8));
+      }
+      public void write(ByteBuffer buf, String val) {
+        BYTES.write(buf, val == null ? null : val.getBytes(utf8));
+      }
+      public String read(ByteBuffer buf, int offset) {
+        byte[] dat = BYTES.read(buf, offset);
+        return dat == null ? null : new String(dat, utf8);
+      }
+      public int length(ByteBuffer buf, int offset) {
+        return BYTES.length(buf, offset);
+      }
+    };
+  
+  public static final Codec<IntPair> INT_PAIR = 
+    new Codec<IntPair>() {
+      public int size(IntPair val) {
+        return 8;
+      }
+      public void write(ByteBuffer buf, IntPair val) {
+        buf.putInt(val.one());
+        buf.putInt(val.two());
+      }
+      public IntPair read(ByteBuffer buf, int offset) {
+        return IntPair.of(buf.getInt(offset), buf.getInt(offset + 4));
+      }
+      public int length(ByteBuffer buf, int offset) {
+        return 8;
+      }
+    };
+  
+  public static <V1,V2>Codec<Pair<V1,V2>> pair(
+    final Codec<V1> one, 
+    final Codec<V2> two) {
+      checkNotNull(one);
+      checkNotNull(two);
+      return new Codec<Pair<V1,V2>>() {
+        public int size(Pair<V1,V2> val) {
+          return one.size(val.one()) + two.size(val.two());
+        }
+        public void write(ByteBuffer buf, Pair<V1,V2> val) {
+          one.write(buf, val.one());
+          two.write(buf, val.two());
+        }
+        public Pair<V1,V2> read(ByteBuffer buf, int offset) {
+          int l = one.length(buf, offset);
+          return Pair.of(
+            one.read(buf, offset), 
+            two.read(buf, offset + l));
+        }
+        public int length(ByteBuffer buf, int offset) {
+          int l = one.length(buf, offset);
+          return l + two.length(buf, offset + l);
+        }
+      };
+  }
+  
+  public static <V1,V2,V3>Codec<Triple<V1,V2,V3>> triple(
+    final Codec<V1> one, 
+    final Codec<V2> two,
+    final Codec<V3> three) {
+      checkNotNull(one);
+      checkNotNull(two);
+      checkNotNull(three);
+      return new Codec<Triple<V1,V2,V3>>() {
+        public int size(Triple<V1,V2,V3> val) {
+          return 
+            one.size(val.one()) + 
+            two.size(val.two()) + 
+            three.size(val.three());
+        }
+        public void write(ByteBuffer buf, Triple<V1,V2,V3> val) {
+          one.write(buf, val.one());
+          two.write(buf, val.two());
+          three.write(buf, val.three());
+        }
+        public Triple<V1,V2,V3> read(ByteBuffer buf, int offset) {
+          int l1 = one.length(buf, offset);
+          int l2 = two.length(buf, offset + l1);
+          return Triple.of(
+            one.read(buf, offset), 
+            two.read(buf, offset + l1),
+            three.read(buf, offset + l1 + l2));
+        }
+        public int length(ByteBuffer buf, int offset) {
+          int l1 = one.length(buf, offset);
+          int l2 = two.length(buf, offset + l1);
+          return l1 + l2 + three.length(buf, offset + l1 + l2);
+        }
+      };
+  }
+  
+  public static <T>long size(Codec<? super T> codec, Iterable<? extends T> vals) {
+    long size = 0;
+    for (T val : vals)
+      size += codec.size(val);
+    return size;
+  }
+  
+  /**
+   * Writes every value at the buffer's position, advancing it
+   */
+  public static <T>ByteBuffer writeAll(
+    ByteBuffer buf, 
+    Codec<? super T> codec, 
+    Iterable<? extends T> vals) {
+      for (T val : vals)
+        codec.write(buf, val);
+      return buf;
+  }
+  
+  /**
+   * Appends every value to the end of the file in a single pass 
+   * through a memory-mapped window that is re-mapped further along 
+   * the file as it fills, so the output is not limited to one 
+   * mapping. A value that does not fit in what is left of the window
+   * is written again at the start of the next one (which doubles if
+   * the value alone is larger). Returns the number of bytes written.
+   */
+  public static <T>long writeAll(
+    FileChannel channel, 
+    Codec<? super T> codec, 
+    Iterable<? extends T> vals) {
+      try {
+        long start = channel.size(), pos = start;
+        int window = WINDOW;
+        MappedByteBuffer buf = 
+          channel.map(FileChannel.MapMode.READ_WRITE, pos, window);
+        for (T val : vals) {
+          for (;;) {
+            int mark = buf.position();
+            try {
+              codec.write(buf, val);
+              break;
+            } catch (BufferOverflowException e) {
+              if (mark == 0) {
+                if (window == Integer.MAX_VALUE)
+                  throw e;
+                window = (int)Math.min(Integer.MAX_VALUE, window * 2L);
+              }
+              buf.force();
+              pos += mark;
+              buf = channel.map(FileChannel.MapMode.READ_WRITE, pos, window);
+            }
+          }
+        }
+        pos += buf.position();
+        buf.force();
+        // mapping the last window extended the file past the data
+        channel.truncate(pos);
+        return pos - start;
+      } catch (IOException e) {
+        throw propagate(e);
+      }
+  }
+  
+  /**
+   * Maps the whole file read-only, for use with the views
+   */
+  public static ByteBuffer map(FileChannel channel) {
+    try {
+      return channel.map(
+        FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    } catch (IOException e) {
+      throw propagate(e);
+    }
+  }
+  
+  static int varintSize(int n) {
+    int size = 1;
+    while ((n & ~0x7F) != 0) {
+      n >>>= 7;
+      size++;
+    }
+    return size;
+  }
+  
+  static void putVarint(ByteBuffer buf, int n) {
+    while ((n & ~0x7F) != 0) {
+      buf.put((byte)((n & 0x7F) | 0x80));
+      n >>>= 7;
+    }
+    buf.put((byte)n);
+  }
+  
+  static int getVarint(ByteBuffer buf, int offset) {
+    int n = 0;
+    for (int shift = 0; ; shift += 7) {
+      byte b = buf.get(offset++);
+      n |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0)
+        return n;
+    }
+  }
+}
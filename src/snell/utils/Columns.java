@@ -0,0 +1,111 @@
+package snell.utils;
+
+import java.util.Comparator;
+
+/**
+ * Shared plumbing for the struct-of-arrays containers (PairList, 
+ * TripleList, IntPairList). Sorting works by computing a stable 
+ * ordering of row indices and then permuting every column by it, 
+ * so the columns always stay aligned.
+ */
+final class Columns {
+
+  private Columns() {}
+  
+  static final int DEFAULT_CAPACITY = 10;
+  
+  static int grow(int capacity, int needed) {
+    if (needed < 0)
+      throw new OutOfMemoryError();
+    int n = capacity + (capacity >> 1) + 1;
+    return n < needed || n < 0 ? needed : n;
+  }
+  
+  /**
+   * Returns the indices 0..size-1 stably sorted by the values in 
+   * the given column
+   */
+  static <V>int[] order(
+    final Object[] col, 
+    int size, 
+    final Comparator<? super V> cmp) {
+      int[] idx = new int[size];
+      for (int n = 0; n < size; n++)
+        idx[n] = n;
+      mergeSort(idx, new int[size], 0, size, new IndexComparator() {
+        @SuppressWarnings("unchecked")
+        public int compare(int a, int b) {
+          return cmp.compare((V)col[a], (V)col[b]);
+        }
+      });
+      return idx;
+  }
+  
+  static Object[] permute(Object[] col, int[] order) {
+    Object[] ret = new Object[col.length];
+    for (int n = 0; n < order.length; n++)
+      ret[n] = col[order[n]];
+    return ret;
+  }
+  
+  /**
+   * Finds the first row at or after which key would be inserted
+   * into a column sorted by cmp. Returns the row index if the value
+   * at that row equals the key, or -(insertion point) - 1 otherwise,
+   * like Arrays.binarySearch.
+   */
+  @SuppressWarnings("unchecked")
+  static <V>int search(
+    Object[] col, 
+    int size, 
+    V key, 
+    Comparator<? super V> cmp) {
+      int lo = 0, hi = size;
+      while (lo < hi) {
+        int mid = (lo + hi) >>> 1;
+        if (cmp.compare((V)col[mid], key) < 0)
+          lo = mid + 1;
+        else
+          hi = mid;
+      }
+      return lo < size && cmp.compare((V)col[lo], key) == 0 ? 
+        lo : -(lo + 1);
+  }
+  
+  interface IndexComparator {
+    int compare(int a, int b);
+  }
+  
+  private static void mergeSort(
+    int[] idx, 
+    int[] tmp, 
+    int from, 
+    int to, 
+    IndexComparator cmp) {
+      if (to - from < 16) {
+        for (int i = from + 1; i < to; i++) {
+          int v = idx[i];
+          int j = i;
+          while (j > from && cmp.compare(idx[j - 1], v) > 0) {
+            idx[j] = idx[j - 1];
+            j--;
+          }
+          idx[j] = v;
+        }
+        return;
+      }
+      int mid = (from + to) >>> 1;
+      mergeSort(idx, tmp, from, mid, cmp);
+      mergeSort(idx, tmp, mid, to, cmp);
+      if (cmp.compare(idx[mid - 1], idx[mid]) <= 0)
+        return;
+      System.arraycopy(idx, from, tmp, from, to - from);
+      int i = from, j = mid, k = from;
+      while (i < mid && j < to)
+        idx[k++] = cmp.compare(tmp[j], tmp[i]) < 0 ? tmp[j++] : tmp[i++];
+      while (i < mid)
+        idx[k++] = tmp[i++];
+      while (j < to)
+        idx[k++] = tmp[j++];
+  }
+}
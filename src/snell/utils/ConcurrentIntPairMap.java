@@ -0,0 +1,310 @@
+package snell.utils;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static snell.utils.IntPairMap.MAX_CAPACITY;
+import static snell.utils.IntPairMap.capacity;
+import static snell.utils.OpenAddressing.mix;
+import static snell.utils.OpenAddressing.segmentIndex;
+import static snell.utils.OpenAddressing.segments;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Concurrent hash map keyed by a pair of ints packed into a long, 
+ * for state shared across threads such as grid cells or (shard, 
+ * partition) tuples. Like IntPairMap, no IntPair is ever allocated
+ * for a lookup.
+ * 
+ * The map is split into segments, each an open-addressing table 
+ * held in atomic arrays, selected by the top bits of the key's 
+ * 64-bit hash while slots use its low bits. Reads never lock: a writer publishes the 
+ * value before the key, so a reader that finds the key also sees 
+ * its value. Writes lock only their segment, which also makes 
+ * compute and merge atomic. Removal leaves the key in place with a 
+ * null value, so that lock-free readers never see entries move; 
+ * these tombstones are dropped whenever the segment is rehashed.
+ * 
+ * Null values are not permitted.
+ */
+public final class ConcurrentIntPairMap<V> {
+
+  /**
+   * Computes a new value for a key from its current value, which 
+   * is null when the key is absent. Returning null removes the key.
+   */
+  public static interface Remapping<V> {
+    V apply(int one, int two, V existing);
+  }
+  
+  private static final int SEGMENTS = segments();
+  
+  public static <V>ConcurrentIntPairMap<V> create() {
+    return new ConcurrentIntPairMap<V>(16 * SEGMENTS);
+  }
+  
+  public static <V>ConcurrentIntPairMap<V> createWithExpectedSize(int expectedSize) {
+    checkArgument(expectedSize >= 0);
+    return new ConcurrentIntPairMap<V>(expectedSize);
+  }
+  
+  @SuppressWarnings("unchecked")
+  private final Segment<V>[] segments = 
+    (Segment<V>[])new Segment<?>[SEGMENTS];
+  private final Segment<V> zero;
+  
+  private ConcurrentIntPairMap(int expectedSize) {
+    int capacity = capacity(Math.max(1, expectedSize / SEGMENTS));
+    for (int n = 0; n < segments.length; n++)
+      segments[n] = new Segment<V>(capacity);
+    zero = new Segment<V>(2);
+  }
+  
+  private Segment<V> segment(long k, long h) {
+    return k == 0 ? 
+      zero : 
+      segments[segmentIndex(h, SEGMENTS)];
+  }
+  
+  public V get(int one, int two) {
+    long k = IntPair.pack(one,two);
+    long h = mix(k);
+    return segment(k, h).get(k, (int) h);
+  }
+  
+  public boolean containsKey(int one, int two) {
+    return get(one,two) != null;
+  }
+  
+  public V put(int one, int two, V value) {
+    checkNotNull(value);
+    long k = IntPair.pack(one,two);
+    long h = mix(k);
+    return segment(k, h).put(k, (int) h, value, false);
+  }
+  
+  public V putIfAbsent(int one, int two, V value) {
+    checkNotNull(value);
+    long k = IntPair.pack(one,two);
+    long h = mix(k);
+    return segment(k, h).put(k, (int) h, value, true);
+  }
+  
+  public V remove(int one, int two) {
+    long k = IntPair.pack(one,two);
+    long h = mix(k);
+    return segment(k, h).replace(k, (int) h, null, null);
+  }
+  
+  /**
+   * Removes the key only if it is currently mapped to value
+   */
+  public boolean remove(int one, int two, V value) {
+    checkNotNull(value);
+    long k = IntPair.pack(one,two);
+    long h = mix(k);
+    return segment(k, h).replace(k, (int) h, value, null) != null;
+  }
+  
+  /**
+   * Replaces the value only if it is currently expected
+   */
+  public boolean replace(int one, int two, V expected, V value) {
+    checkNotNull(expected);
+    checkNotNull(value);
+    long k = IntPair.pack(one,two);
+    long h = mix(k);
+    return segment(k, h).replace(k, (int) h, expected, value) != null;
+  }
+  
+  /**
+   * Atomically replaces the value for the key with the result of 
+   * the remapping, returning the new value
+   */
+  public V compute(int one, int two, Remapping<V> remapping) {
+    checkNotNull(remapping);
+    long k = IntPair.pack(one,two);
+    long h = mix(k);
+    return segment(k, h).compute(one, two, k, (int) h, remapping);
+  }
+  
+  /**
+   * Atomically associates the value with the key if absent, or 
+   * merges it with the existing value otherwise, returning the new
+   * value
+   */
+  public V merge(
+    int one, 
+    int two, 
+    final V value, 
+    final Pairs.Merge<V> merge) {
+    checkNotNull(value);
+    checkNotNull(merge);
+    return compute(one, two, new Remapping<V>() {
+      public V apply(int one, int two, V existing) {
+        return existing == null ? 
+          value : 
+          merge.merge(existing, value);
+      }
+    });
+  }
+  
+  /**
+   * The number of mappings, which may be stale by the time it 
+   * returns if the map is being modified concurrently
+   */
+  public int size() {
+    int size = zero.size;
+    for (Segment<V> segment : segments)
+      size += segment.size;
+    return size;
+  }
+  
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+  
+  private static final class Table<V> {
+    final AtomicLongArray keys;
+    final AtomicReferenceArray<V> values;
+    final int mask;
+    final int limit;
+    Table(int capacity) {
+      keys = new AtomicLongArray(capacity);
+      values = new AtomicReferenceArray<V>(capacity);
+      mask = capacity - 1;
+      limit = (int)(capacity * 0.75);
+    }
+  }
+  
+  /**
+   * Open-addressing table guarded by its own monitor for writes. 
+   * The packed key zero marks a free slot, so the zero segment, 
+   * which only ever holds the (0,0) key, stores it under a sentinel
+   * key of one.
+   */
+  private static final class Segment<V> {
+    private static final int ONE = (int) mix(1);
+    private volatile Table<V> table;
+    private volatile int size;
+    private int used;
+    
+    Segment(int capacity) {
+      table = new Table<V>(capacity);
+    }
+    
+    private int index(Table<V> t, long k, int h) {
+      if (k == 0) {
+        k = 1;
+        h = ONE;
+      }
+      int i = h & t.mask;
+      long c;
+      while ((c = t.keys.get(i)) != 0) {
+        if (c == k)
+          return i;
+        i = (i + 1) & t.mask;
+      }
+      return -1 - i;
+    }
+    
+    V get(long k, int h) {
+      Table<V> t = table;
+      int i = index(t, k, h);
+      return i < 0 ? null : t.values.get(i);
+    }
+    
+    synchronized V put(long k, int h, V value, boolean onlyIfAbsent) {
+      Table<V> t = table;
+      int i = index(t, k, h);
+      if (i >= 0) {
+        V prev = t.values.get(i);
+        if (prev == null)
+          size++;
+        else if (onlyIfAbsent)
+          return prev;
+        t.values.set(i, value);
+        return prev;
+      }
+      insert(t, -1 - i, k, value);
+      return null;
+    }
+    
+    /**
+     * Sets the value to update, or removes the key when update is 
+     * null, provided the current value is expected (or any value 
+     * if expected is null). Returns the previous value when the 
+     * change was made, null otherwise.
+     */
+    synchronized V replace(long k, int h, V expected, V update) {
+      Table<V> t = table;
+      int i = index(t, k, h);
+      if (i < 0)
+        return null;
+      V prev = t.values.get(i);
+      if (prev == null || (expected != null && !expected.equals(prev)))
+        return null;
+      t.values.set(i, update);
+      if (update == null)
+        size--;
+      return prev;
+    }
+    
+    synchronized V compute(
+      int one, 
+      int two, 
+      long k, 
+      int h, 
+      Remapping<V> remapping) {
+      Table<V> t = table;
+      int i = index(t, k, h);
+      V prev = i < 0 ? null : t.values.get(i);
+      V value = remapping.apply(one, two, prev);
+      if (i < 0) {
+        if (value != null)
+          insert(t, -1 - i, k, value);
+      } else {
+        t.values.set(i, value);
+        if (prev == null && value != null)
+          size++;
+        else if (prev != null && value == null)
+          size--;
+      }
+      return value;
+    }
+    
+    private void insert(Table<V> t, int i, long k, V value) {
+      t.values.set(i, value);
+      t.keys.set(i, k == 0 ? 1 : k);
+      size++;
+      if (++used >= t.limit)
+        rehash(t);
+    }
+    
+    private void rehash(Table<V> old) {
+      int capacity = old.keys.length();
+      if (size >= old.limit / 2) {
+        if (capacity >= MAX_CAPACITY)
+          throw new IllegalStateException("ConcurrentIntPairMap is full");
+        capacity <<= 1;
+      }
+      Table<V> t = new Table<V>(capacity);
+      int n = 0;
+      for (int j = 0; j < old.keys.length(); j++) {
+        V value = old.values.get(j);
+        if (value == null)
+          continue;
+        long c = old.keys.get(j);
+        int i = (int) mix(c) & t.mask;
+        while (t.keys.get(i) != 0)
+          i = (i + 1) & t.mask;
+        t.values.set(i, value);
+        t.keys.set(i, c);
+        n++;
+      }
+      used = n;
+      table = t;
+    }
+  }
+}
@@ -2,44 +2,126 @@ package snell.utils;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import com.google.common.base.Supplier;
+import com.google.common.primitives.Ints;
 
 /**
  * Maintains a reference count for a given value. The range of 
  * allowed references are capped at a maximum of 0xFFFF distinct 
  * references. Any attempt to increment the counter > 0xFFFF will 
  * have zero effect. Any attempt to decrement the counter < 0 will
- * have zero effect.
+ * have zero effect. Both bounds are enforced with a compare-and-set
+ * loop so the counter is safe to update without external locking.
+ * 
+ * References created with scalableRef(V) instead keep an uncapped 
+ * 64-bit count in a StripedCounter that spreads itself across 
+ * per-thread cells once it detects contention, for very hot shared
+ * values. Their count() is then a cheap approximation; longCount()
+ * returns the full 64-bit value. Releases still detect zero exactly.
  */
 public final class CountingReference<V> 
   implements Supplier<V> {
     
   public static <V>CountingReference<V> ref(V item) {
-    return new CountingReference<V>(item);
+    return new CountingReference<V>(item, false);
   }
   
-  private transient final AtomicInteger c =
-    new AtomicInteger(0);
+  public static <V>CountingReference<V> scalableRef(V item) {
+    return new CountingReference<V>(item, true);
+  }
+  
+  private transient final AtomicInteger c;
+  private transient final StripedCounter s;
   private transient int hash = 1;
   private final V val;
   
   CountingReference(V val) {
+    this(val, false);
+  }
+  CountingReference(V val, boolean scalable) {
     this.val = val;
+    this.c = scalable ? null : new AtomicInteger(0);
+    this.s = scalable ? new StripedCounter() : null;
   }
   public V get() {
     return val;
   }
   CountingReference<V> increment() {
-    if (c.get() < 0xFFFF)
-      c.incrementAndGet();
-    return this;
+    if (s != null) {
+      s.increment();
+      return this;
+    }
+    for (;;) {
+      int n = c.get();
+      if (n >= 0xFFFF || c.compareAndSet(n, n + 1))
+        return this;
+    }
   }
   CountingReference<V> decrement() {
-    if (c.get() > 0)
-      c.decrementAndGet();
-    return this;
+    if (s != null) {
+      s.decrement();
+      return this;
+    }
+    for (;;) {
+      int n = c.get();
+      if (n <= 0 || c.compareAndSet(n, n - 1))
+        return this;
+    }
+  }
+  /**
+   * Like increment() but fails once the reference has been retired
+   * by a ReclaimingReferenceCounter, telling the caller to intern a
+   * fresh reference instead.
+   */
+  boolean tryIncrement() {
+    if (s != null)
+      return s.increment();
+    for (;;) {
+      int n = c.get();
+      if (n < 0)
+        return false;
+      if (n >= 0xFFFF || c.compareAndSet(n, n + 1))
+        return true;
+    }
+  }
+  boolean tryRetire() {
+    return s != null ? 
+      s.retire() : 
+      c.compareAndSet(0, -1);
+  }
+  /**
+   * Decrements the count, returning true only if this call is the
+   * one that took it to exactly zero. For a striped scalable 
+   * reference a release that may reach zero collapses the stripes
+   * first.
+   */
+  boolean release() {
+    if (s != null)
+      return s.decrement();
+    for (;;) {
+      int n = c.get();
+      if (n <= 0)
+        return false;
+      if (c.compareAndSet(n, n - 1))
+        return n == 1;
+    }
+  }
+  /**
+   * Releases a striped scalable reference without locking when it
+   * provably keeps other references. Returns false, leaving the 
+   * count unchanged, when release() has to be used instead.
+   */
+  boolean releaseUnlessLast() {
+    return s != null && s.decrementUnlessLast();
   }
   public int count() {
-    return c.get();
+    return s != null ? 
+      Ints.saturatedCast(s.sum()) : 
+      c.get();
+  }
+  public long longCount() {
+    return s != null ? 
+      s.sum() : 
+      c.get();
   }
   @Override
   public int hashCode() {
@@ -35,6 +35,11 @@ public final class Crypto {
 
   private Crypto() {}
   
+  private static final Probe SIG = Probe.CRYPTO_SIG;
+  private static final Probe SIGVAL = Probe.CRYPTO_SIGVAL;
+  private static final Probe HMAC = Probe.CRYPTO_HMAC;
+  private static final Probe HMACVAL = Probe.CRYPTO_HMACVAL;
+  
   public static Function<byte[],String> sig(
     final PrivateKey key, final String alg) {
       return new Function<byte[],String>() {
@@ -118,48 +123,60 @@ public final class Crypto {
     }
   
   public static String sig(PrivateKey key, String alg, byte[] mat) {
+    long start = SIG.begin();
     try {
-      Signature sig = Signature.getInstance(alg);
-      sig.initSign((PrivateKey)key);
+      Signature sig = Providers.signer(alg, key);
       sig.update(mat);
       byte[] dat = sig.sign();
       return encodeBase64URLSafeString(dat);
     } catch (Throwable t) {
       throw propagate(t);
+    } finally {
+      if (start != Probe.OFF)
+        SIG.end(start, alg, mat == null ? 0 : mat.length, key);
     }
   }
   
   public static String hmac(Key key, String alg, byte[] mat) {
+    long start = HMAC.begin();
     try {
-      Mac mac = Mac.getInstance(alg);
-      mac.init(key);
+      Mac mac = Providers.mac(alg, key);
       mac.update(mat,0,mat.length);
       byte[] sig = mac.doFinal();
       return encodeBase64URLSafeString(sig);
     } catch (Throwable t) {
       throw propagate(t);
+    } finally {
+      if (start != Probe.OFF)
+        HMAC.end(start, alg, mat == null ? 0 : mat.length, key);
     }
   }
   
   public static boolean sigval(PublicKey key, String alg, byte[] mat, byte[] dat) {
+    long start = SIGVAL.begin();
     try {
-      Signature sig = Signature.getInstance(alg);
-      sig.initVerify(key);
+      Signature sig = Providers.verifier(alg, key);
       sig.update(mat);
       return sig.verify(dat);
     } catch (Throwable t) {
       throw propagate(t);
+    } finally {
+      if (start != Probe.OFF)
+        SIGVAL.end(start, alg, mat == null ? 0 : mat.length, key);
     }
   }
   
   public static boolean hmacval(Key key, String alg, byte[] mat, byte[] dat) {
+    long start = HMACVAL.begin();
     try {
-      Mac mac = Mac.getInstance(alg);
-      mac.init(key);
+      Mac mac = Providers.mac(alg, key);
       byte[] sig = mac.doFinal(mat);
       return Arrays.equals(sig, dat);
     } catch (Throwable t) {
       throw propagate(t);
+    } finally {
+      if (start != Probe.OFF)
+        HMACVAL.end(start, alg, mat == null ? 0 : mat.length, key);
     }
   }
     
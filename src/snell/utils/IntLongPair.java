@@ -0,0 +1,55 @@
+package snell.utils;
+
+import com.google.common.base.Objects;
+
+public final class IntLongPair {
+
+  public static IntLongPair of(int v1, long v2) {
+    return new IntLongPair(v1,v2);
+  }
+  
+  private final int v1;
+  private final long v2;
+  private transient int hash = 1;
+  
+  IntLongPair(int v1, long v2) {
+    this.v1 = v1;
+    this.v2 = v2;
+    this.hash = 
+      hashCode();
+  }
+  
+  public int one() {
+    return v1;
+  }
+  
+  public long two() {
+    return v2;
+  }
+  
+  public String toString() {
+    return Objects.toStringHelper("IntLongPair")
+      .add("one", one())
+      .add("two", two())
+      .toString();
+  }
+
+  @Override
+  public int hashCode() {
+    if (hash == 1)
+      hash = 31 * (31 + v1) + (int)(v2 ^ (v2 >>> 32));
+    return hash;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) return true;
+    if (obj == null) return false;
+    if (getClass() != obj.getClass()) 
+      return false;
+    IntLongPair other = (IntLongPair) obj;
+    return 
+      v1 == other.v1 &&
+      v2 == other.v2; 
+  }
+}
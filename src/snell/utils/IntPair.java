@@ -8,6 +8,18 @@ public final class IntPair {
     return new IntPair(v1,v2);
   }
   
+  /**
+   * Packs both components into a single long, v1 in the high 
+   * 32 bits and v2 in the low 32 bits
+   */
+  public static long pack(int v1, int v2) {
+    return ((long)v1 << 32) | (v2 & 0xFFFFFFFFL);
+  }
+  
+  public static IntPair unpack(long packed) {
+    return of((int)(packed >>> 32), (int)packed);
+  }
+  
   private final int v1;
   private final int v2;
   private transient int hash = 1;
@@ -31,6 +43,10 @@ public final class IntPair {
     return v2;
   }
   
+  public long pack() {
+    return pack(v1,v2);
+  }
+  
   public String toString() {
     return Objects.toStringHelper("Pair")
       .add("one", one())
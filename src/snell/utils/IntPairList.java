@@ -0,0 +1,184 @@
+package snell.utils;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkElementIndex;
+
+import java.util.Arrays;
+
+/**
+ * Columnar list of int pairs, kept as two primitive int arrays. 
+ * Sorting packs each row into an order-preserving long and uses the 
+ * primitive Arrays.sort, so it never boxes. See PairList. 
+ * Not thread-safe.
+ */
+public final class IntPairList {
+
+  public static IntPairList create() {
+    return new IntPairList(Columns.DEFAULT_CAPACITY);
+  }
+  
+  public static IntPairList createWithExpectedSize(int expectedSize) {
+    checkArgument(expectedSize >= 0);
+    return new IntPairList(expectedSize);
+  }
+  
+  private int[] ones;
+  private int[] twos;
+  private int size;
+  
+  private IntPairList(int capacity) {
+    ones = new int[capacity];
+    twos = new int[capacity];
+  }
+  
+  private void ensureCapacity(int needed) {
+    if (needed > ones.length) {
+      int capacity = Columns.grow(ones.length, needed);
+      ones = Arrays.copyOf(ones, capacity);
+      twos = Arrays.copyOf(twos, capacity);
+    }
+  }
+  
+  public IntPairList add(int v1, int v2) {
+    ensureCapacity(size + 1);
+    ones[size] = v1;
+    twos[size] = v2;
+    size++;
+    return this;
+  }
+  
+  public IntPairList add(IntPair pair) {
+    return add(pair.one(), pair.two());
+  }
+  
+  /**
+   * Appends rows from parallel arrays
+   */
+  public IntPairList addAll(int[] v1, int[] v2, int offset, int length) {
+    checkArgument(offset >= 0 && length >= 0);
+    checkArgument(offset + length <= v1.length && offset + length <= v2.length);
+    ensureCapacity(size + length);
+    System.arraycopy(v1, offset, ones, size, length);
+    System.arraycopy(v2, offset, twos, size, length);
+    size += length;
+    return this;
+  }
+  
+  public IntPairList addAll(IntPairList other) {
+    return addAll(other.ones, other.twos, 0, other.size);
+  }
+  
+  public int one(int index) {
+    checkElementIndex(index, size);
+    return ones[index];
+  }
+  
+  public int two(int index) {
+    checkElementIndex(index, size);
+    return twos[index];
+  }
+  
+  public IntPair get(int index) {
+    return IntPair.of(one(index), two(index));
+  }
+  
+  public int size() {
+    return size;
+  }
+  
+  public boolean isEmpty() {
+    return size == 0;
+  }
+  
+  public void clear() {
+    size = 0;
+  }
+  
+  public void trimToSize() {
+    ones = Arrays.copyOf(ones, size);
+    twos = Arrays.copyOf(twos, size);
+  }
+  
+  /**
+   * Sorts the rows by their first component, then their second
+   */
+  public IntPairList sortByOne() {
+    sort(ones, twos);
+    return this;
+  }
+  
+  /**
+   * Sorts the rows by their second component, then their first
+   */
+  public IntPairList sortByTwo() {
+    sort(twos, ones);
+    return this;
+  }
+  
+  private void sort(int[] major, int[] minor) {
+    long[] packed = new long[size];
+    for (int n = 0; n < size; n++)
+      packed[n] = ((long)major[n] << 32) | 
+        ((minor[n] ^ Integer.MIN_VALUE) & 0xFFFFFFFFL);
+    Arrays.sort(packed);
+    for (int n = 0; n < size; n++) {
+      major[n] = (int)(packed[n] >> 32);
+      minor[n] = (int)packed[n] ^ Integer.MIN_VALUE;
+    }
+  }
+  
+  /**
+   * Binary searches a list sorted by sortByOne, returning the first
+   * matching row or -(insertion point) - 1
+   */
+  public int searchOne(int key) {
+    return search(ones, key);
+  }
+  
+  public int searchTwo(int key) {
+    return search(twos, key);
+  }
+  
+  private int search(int[] col, int key) {
+    int lo = 0, hi = size;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (col[mid] < key)
+        lo = mid + 1;
+      else
+        hi = mid;
+    }
+    return lo < size && col[lo] == key ? lo : -(lo + 1);
+  }
+  
+  /**
+   * Returns a reusable cursor positioned before the first row
+   */
+  public Cursor cursor() {
+    return new Cursor(this);
+  }
+  
+  public static final class Cursor {
+    private final IntPairList list;
+    private int index = -1;
+    Cursor(IntPairList list) {
+      this.list = list;
+    }
+    public boolean next() {
+      return ++index < list.size;
+    }
+    public Cursor reset() {
+      index = -1;
+      return this;
+    }
+    public int index() {
+      return index;
+    }
+    public int one() {
+      return list.ones[index];
+    }
+    public int two() {
+      return list.twos[index];
+    }
+  }
+}
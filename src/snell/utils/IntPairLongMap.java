@@ -0,0 +1,241 @@
+package snell.utils;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static snell.utils.IntPairMap.MAX_CAPACITY;
+import static snell.utils.IntPairMap.capacity;
+import static snell.utils.OpenAddressing.mix;
+import static snell.utils.OpenAddressing.stays;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from a pair of ints to a primitive long, 
+ * laid out like IntPairMap. Useful for counting or weighting edges 
+ * and coordinates without boxing either the key or the value.
+ * Missing keys read as zero. Not thread-safe.
+ */
+public final class IntPairLongMap {
+
+  public static IntPairLongMap create() {
+    return new IntPairLongMap(16);
+  }
+  
+  public static IntPairLongMap createWithExpectedSize(int expectedSize) {
+    checkArgument(expectedSize >= 0);
+    return new IntPairLongMap(expectedSize);
+  }
+  
+  private long[] keys;
+  private long[] values;
+  private boolean hasZero;
+  private long zero;
+  private int size;
+  private int mask;
+  private int limit;
+  
+  private IntPairLongMap(int expectedSize) {
+    allocate(capacity(expectedSize));
+  }
+  
+  private void allocate(int capacity) {
+    keys = new long[capacity];
+    values = new long[capacity];
+    mask = capacity - 1;
+    limit = (int)(capacity * 0.75);
+  }
+  
+  private int find(long k) {
+    int i = (int) mix(k) & mask;
+    long c;
+    while ((c = keys[i]) != 0) {
+      if (c == k)
+        return i;
+      i = (i + 1) & mask;
+    }
+    return -1;
+  }
+  
+  public long get(int one, int two) {
+    long k = IntPair.pack(one,two);
+    if (k == 0)
+      return zero;
+    int i = find(k);
+    return i < 0 ? 0 : values[i];
+  }
+  
+  public boolean containsKey(int one, int two) {
+    long k = IntPair.pack(one,two);
+    return k == 0 ? hasZero : find(k) >= 0;
+  }
+  
+  /**
+   * Associates the value with the key, returning the previous 
+   * value or zero
+   */
+  public long put(int one, int two, long value) {
+    long k = IntPair.pack(one,two);
+    if (k == 0) {
+      long prev = zero;
+      zero = value;
+      if (!hasZero) {
+        hasZero = true;
+        size++;
+      }
+      return prev;
+    }
+    int i = slot(k);
+    long prev = values[i];
+    values[i] = value;
+    return prev;
+  }
+  
+  /**
+   * Adds delta to the value for the key, returning the new value
+   */
+  public long addTo(int one, int two, long delta) {
+    long k = IntPair.pack(one,two);
+    if (k == 0) {
+      if (!hasZero) {
+        hasZero = true;
+        size++;
+      }
+      return zero += delta;
+    }
+    int i = slot(k);
+    return values[i] += delta;
+  }
+  
+  public long remove(int one, int two) {
+    long k = IntPair.pack(one,two);
+    if (k == 0) {
+      long prev = zero;
+      if (hasZero) {
+        hasZero = false;
+        zero = 0;
+        size--;
+      }
+      return prev;
+    }
+    int i = find(k);
+    if (i < 0)
+      return 0;
+    long prev = values[i];
+    delete(i);
+    size--;
+    return prev;
+  }
+  
+  public int size() {
+    return size;
+  }
+  
+  public boolean isEmpty() {
+    return size == 0;
+  }
+  
+  public void clear() {
+    Arrays.fill(keys, 0);
+    Arrays.fill(values, 0);
+    hasZero = false;
+    zero = 0;
+    size = 0;
+  }
+  
+  /**
+   * Returns a cursor over the entries. The cursor is invalidated by
+   * any modification of the map.
+   */
+  public Cursor cursor() {
+    return new Cursor(this);
+  }
+  
+  /**
+   * Finds or inserts the slot for a non-zero key
+   */
+  private int slot(long k) {
+    int i = (int) mix(k) & mask;
+    long c;
+    while ((c = keys[i]) != 0) {
+      if (c == k)
+        return i;
+      i = (i + 1) & mask;
+    }
+    keys[i] = k;
+    values[i] = 0;
+    if (++size >= limit) {
+      rehash();
+      return find(k);
+    }
+    return i;
+  }
+  
+  private void delete(int i) {
+    int j = i;
+    for (;;) {
+      j = (j + 1) & mask;
+      long c = keys[j];
+      if (c == 0)
+        break;
+      int k = (int) mix(c) & mask;
+      if (stays(i, j, k))
+        continue;
+      keys[i] = c;
+      values[i] = values[j];
+      i = j;
+    }
+    keys[i] = 0;
+    values[i] = 0;
+  }
+  
+  private void rehash() {
+    long[] oldKeys = keys;
+    long[] oldValues = values;
+    if (oldKeys.length >= MAX_CAPACITY)
+      throw new IllegalStateException("IntPairLongMap is full");
+    allocate(oldKeys.length << 1);
+    for (int n = 0; n < oldKeys.length; n++) {
+      long c = oldKeys[n];
+      if (c == 0)
+        continue;
+      int i = (int) mix(c) & mask;
+      while (keys[i] != 0)
+        i = (i + 1) & mask;
+      keys[i] = c;
+      values[i] = oldValues[n];
+    }
+  }
+  
+  public static final class Cursor {
+    private final IntPairLongMap map;
+    private int i = -1;
+    private long key;
+    private long value;
+    Cursor(IntPairLongMap map) {
+      this.map = map;
+    }
+    public boolean next() {
+      while (++i < map.keys.length) {
+        if (map.keys[i] != 0) {
+          key = map.keys[i];
+          value = map.values[i];
+          return true;
+        }
+      }
+      if (i == map.keys.length && map.hasZero) {
+        key = 0;
+        value = map.zero;
+        return true;
+      }
+      return false;
+    }
+    public int one() {
+      return (int)(key >>> 32);
+    }
+    public int two() {
+      return (int) key;
+    }
+    public long value() {
+      return value;
+    }
+  }
+}
@@ -0,0 +1,232 @@
+package snell.utils;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static snell.utils.OpenAddressing.mix;
+import static snell.utils.OpenAddressing.stays;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map keyed by a pair of ints. Keys are packed 
+ * into a single long (see IntPair.pack) and stored in a primitive 
+ * array alongside the values, so lookups take the two ints directly 
+ * and never allocate an IntPair or map entry.
+ * 
+ * A packed key of zero marks a free slot; the (0,0) key itself is 
+ * kept to one side. Removal uses backward shift deletion, so there 
+ * are no tombstones to degrade lookups over time. Null values are 
+ * not permitted. Not thread-safe.
+ */
+public final class IntPairMap<V> {
+
+  static final int MAX_CAPACITY = 1 << 30;
+  
+  public static <V>IntPairMap<V> create() {
+    return new IntPairMap<V>(16);
+  }
+  
+  public static <V>IntPairMap<V> createWithExpectedSize(int expectedSize) {
+    checkArgument(expectedSize >= 0);
+    return new IntPairMap<V>(expectedSize);
+  }
+  
+  static int capacity(int expectedSize) {
+    long n = Math.max(2, (long) Math.ceil(expectedSize / 0.75));
+    int c = 2;
+    while (c < n && c < MAX_CAPACITY) c <<= 1;
+    return c;
+  }
+  
+  private long[] keys;
+  private V[] values;
+  private V zero;
+  private int size;
+  private int mask;
+  private int limit;
+  
+  private IntPairMap(int expectedSize) {
+    allocate(capacity(expectedSize));
+  }
+  
+  @SuppressWarnings("unchecked")
+  private void allocate(int capacity) {
+    keys = new long[capacity];
+    values = (V[]) new Object[capacity];
+    mask = capacity - 1;
+    limit = (int)(capacity * 0.75);
+  }
+  
+  private int find(long k) {
+    int i = (int) mix(k) & mask;
+    long c;
+    while ((c = keys[i]) != 0) {
+      if (c == k)
+        return i;
+      i = (i + 1) & mask;
+    }
+    return -1;
+  }
+  
+  public V get(int one, int two) {
+    long k = IntPair.pack(one,two);
+    if (k == 0)
+      return zero;
+    int i = find(k);
+    return i < 0 ? null : values[i];
+  }
+  
+  public V get(IntPair key) {
+    return get(key.one(), key.two());
+  }
+  
+  public boolean containsKey(int one, int two) {
+    return get(one,two) != null;
+  }
+  
+  /**
+   * Associates the value with the key, returning the previous 
+   * value or null
+   */
+  public V put(int one, int two, V value) {
+    checkNotNull(value);
+    long k = IntPair.pack(one,two);
+    if (k == 0) {
+      V prev = zero;
+      zero = value;
+      if (prev == null)
+        size++;
+      return prev;
+    }
+    int i = (int) mix(k) & mask;
+    long c;
+    while ((c = keys[i]) != 0) {
+      if (c == k) {
+        V prev = values[i];
+        values[i] = value;
+        return prev;
+      }
+      i = (i + 1) & mask;
+    }
+    keys[i] = k;
+    values[i] = value;
+    if (++size >= limit)
+      rehash();
+    return null;
+  }
+  
+  public V put(IntPair key, V value) {
+    return put(key.one(), key.two(), value);
+  }
+  
+  public V remove(int one, int two) {
+    long k = IntPair.pack(one,two);
+    if (k == 0) {
+      V prev = zero;
+      zero = null;
+      if (prev != null)
+        size--;
+      return prev;
+    }
+    int i = find(k);
+    if (i < 0)
+      return null;
+    V prev = values[i];
+    delete(i);
+    size--;
+    return prev;
+  }
+  
+  public int size() {
+    return size;
+  }
+  
+  public boolean isEmpty() {
+    return size == 0;
+  }
+  
+  public void clear() {
+    Arrays.fill(keys, 0);
+    Arrays.fill(values, null);
+    zero = null;
+    size = 0;
+  }
+  
+  /**
+   * Returns a cursor over the entries. The cursor is invalidated by
+   * any modification of the map.
+   */
+  public Cursor<V> cursor() {
+    return new Cursor<V>(this);
+  }
+  
+  private void delete(int i) {
+    int j = i;
+    for (;;) {
+      j = (j + 1) & mask;
+      long c = keys[j];
+      if (c == 0)
+        break;
+      int k = (int) mix(c) & mask;
+      if (stays(i, j, k))
+        continue;
+      keys[i] = c;
+      values[i] = values[j];
+      i = j;
+    }
+    keys[i] = 0;
+    values[i] = null;
+  }
+  
+  private void rehash() {
+    long[] oldKeys = keys;
+    V[] oldValues = values;
+    if (oldKeys.length >= MAX_CAPACITY)
+      throw new IllegalStateException("IntPairMap is full");
+    allocate(oldKeys.length << 1);
+    for (int n = 0; n < oldKeys.length; n++) {
+      long c = oldKeys[n];
+      if (c == 0)
+        continue;
+      int i = (int) mix(c) & mask;
+      while (keys[i] != 0)
+        i = (i + 1) & mask;
+      keys[i] = c;
+      values[i] = oldValues[n];
+    }
+  }
+  
+  public static final class Cursor<V> {
+    private final IntPairMap<V> map;
+    private int i = -1;
+    private long key;
+    private V value;
+    Cursor(IntPairMap<V> map) {
+      this.map = map;
+    }
+    public boolean next() {
+      while (++i < map.keys.length) {
+        if (map.keys[i] != 0) {
+          key = map.keys[i];
+          value = map.values[i];
+          return true;
+        }
+      }
+      if (i == map.keys.length && map.zero != null) {
+        key = 0;
+        value = map.zero;
+        return true;
+      }
+      return false;
+    }
+    public int one() {
+      return (int)(key >>> 32);
+    }
+    public int two() {
+      return (int) key;
+    }
+    public V value() {
+      return value;
+    }
+  }
+}
@@ -0,0 +1,67 @@
+package snell.utils;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Flyweight over a buffer of IntPairs written with Codecs.INT_PAIR.
+ * Records are a fixed 8 bytes, so the view supports random access 
+ * by index and reads both components as primitives. See PairView.
+ */
+public final class IntPairView {
+
+  public static IntPairView over(ByteBuffer buf) {
+    return new IntPairView(buf);
+  }
+  
+  private final ByteBuffer buf;
+  private final int start;
+  private int offset;
+  
+  private IntPairView(ByteBuffer buf) {
+    this.buf = checkNotNull(buf);
+    this.start = buf.position();
+    this.offset = start - 8;
+  }
+  
+  public boolean next() {
+    if (offset + 16 > buf.limit())
+      return false;
+    offset += 8;
+    return true;
+  }
+  
+  /**
+   * Positions the view on the record with the given index
+   */
+  public IntPairView at(int index) {
+    offset = start + index * 8;
+    return this;
+  }
+  
+  public IntPairView reset() {
+    offset = start - 8;
+    return this;
+  }
+  
+  /**
+   * The number of records between the buffer's starting position 
+   * and its limit
+   */
+  public int size() {
+    return (buf.limit() - start) / 8;
+  }
+  
+  public int one() {
+    return buf.getInt(offset);
+  }
+  
+  public int two() {
+    return buf.getInt(offset + 4);
+  }
+  
+  public IntPair get() {
+    return IntPair.of(one(), two());
+  }
+}
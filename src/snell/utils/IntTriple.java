@@ -0,0 +1,83 @@
+package snell.utils;
+
+import com.google.common.base.Objects;
+
+public final class IntTriple {
+
+  public static IntTriple of(int v1, int v2, int v3) {
+    return new IntTriple(v1,v2,v3);
+  }
+  
+  private final int v1;
+  private final int v2;
+  private final int v3;
+  private transient int hash = 1;
+  
+  IntTriple(int v1, int v2, int v3) {
+    this.v1 = v1;
+    this.v2 = v2;
+    this.v3 = v3;
+    this.hash = 
+      hashCode();
+  }
+  
+  public IntPair left() {
+    return IntPair.of(v1,v2);
+  }
+  
+  public IntPair right() {
+    return IntPair.of(v2,v3);
+  }
+  
+  public IntTriple rotateRight() {
+    return of(v3,v1,v2);
+  }
+  
+  public IntTriple rotateLeft() {
+    return of(v2,v3,v1);
+  }
+  
+  public IntTriple swap() {
+    return of(v3,v2,v1);
+  }
+  
+  public int one() {
+    return v1;
+  }
+  
+  public int two() {
+    return v2;
+  }
+  
+  public int three() {
+    return v3;
+  }
+  
+  public String toString() {
+    return Objects.toStringHelper("IntTriple")
+      .add("one", one())
+      .add("two", two())
+      .add("three", three())
+      .toString();
+  }
+
+  @Override
+  public int hashCode() {
+    if (hash == 1)
+      hash = 31 * (31 * (31 + v1) + v2) + v3;
+    return hash;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) return true;
+    if (obj == null) return false;
+    if (getClass() != obj.getClass()) 
+      return false;
+    IntTriple other = (IntTriple) obj;
+    return 
+      v1 == other.v1 &&
+      v2 == other.v2 &&
+      v3 == other.v3; 
+  }
+}
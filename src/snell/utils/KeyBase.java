@@ -94,8 +94,7 @@ public abstract class KeyBase
   
   protected byte[] hmac(byte[]... mat){
     try {
-      Mac hmac = Mac.getInstance(alg);
-      hmac.init(key);
+      Mac hmac = Providers.mac(alg, key);
       for (byte[] m : mat)
         hmac.update(m);
       return hmac.doFinal();
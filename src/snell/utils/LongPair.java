@@ -0,0 +1,60 @@
+package snell.utils;
+
+import com.google.common.base.Objects;
+
+public final class LongPair {
+
+  public static LongPair of(long v1, long v2) {
+    return new LongPair(v1,v2);
+  }
+  
+  private final long v1;
+  private final long v2;
+  private transient int hash = 1;
+  
+  LongPair(long v1, long v2) {
+    this.v1 = v1;
+    this.v2 = v2;
+    this.hash = 
+      hashCode();
+  }
+  
+  public LongPair swap() {
+    return of(v2,v1);
+  }
+  
+  public long one() {
+    return v1;
+  }
+  
+  public long two() {
+    return v2;
+  }
+  
+  public String toString() {
+    return Objects.toStringHelper("LongPair")
+      .add("one", one())
+      .add("two", two())
+      .toString();
+  }
+
+  @Override
+  public int hashCode() {
+    if (hash == 1)
+      hash = 31 * (31 + (int)(v1 ^ (v1 >>> 32))) + 
+        (int)(v2 ^ (v2 >>> 32));
+    return hash;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) return true;
+    if (obj == null) return false;
+    if (getClass() != obj.getClass()) 
+      return false;
+    LongPair other = (LongPair) obj;
+    return 
+      v1 == other.v1 &&
+      v2 == other.v2; 
+  }
+}
@@ -0,0 +1,166 @@
+package snell.utils;
+
+import static snell.utils.OpenAddressing.mix;
+import static snell.utils.OpenAddressing.segmentIndex;
+import static snell.utils.OpenAddressing.segments;
+import static snell.utils.OpenAddressing.stays;
+
+/**
+ * Reference counter specialized for long keys such as shard ids or
+ * session numbers. Keys and their counts are kept in primitive 
+ * open-addressing tables, so neither acquire nor release boxes the
+ * key or allocates a CountingReference.
+ * 
+ * The semantics mirror ReferenceCounter and CountingReference: 
+ * counts are capped at 0xFFFF and never drop below zero, and a key
+ * is forgotten as soon as its count returns to zero, just as an
+ * interned reference is once nobody holds it.
+ * 
+ * The table is split into independently locked segments selected 
+ * by the top bits of the key's 64-bit hash, and slots by its low 
+ * bits, so operations on different keys rarely contend and each 
+ * segment's keys spread over its whole table.
+ */
+public final class LongReferenceCounter {
+
+  private static final int MAX = 0xFFFF;
+  private static final int SEGMENTS = segments();
+  
+  private final Segment[] segments = 
+    new Segment[SEGMENTS];
+  
+  public LongReferenceCounter() {
+    for (int n = 0; n < segments.length; n++)
+      segments[n] = new Segment();
+  }
+  
+  private Segment segment(long h) {
+    return segments[segmentIndex(h, SEGMENTS)];
+  }
+  
+  /**
+   * Increments the count for the key, returning the new count
+   */
+  public int acquire(long key) {
+    long h = mix(key);
+    return segment(h).acquire(key, (int) h);
+  }
+  
+  /**
+   * Decrements the count for the key, returning the new count. A 
+   * key whose count reaches zero is removed.
+   */
+  public int release(long key) {
+    long h = mix(key);
+    return segment(h).release(key, (int) h);
+  }
+  
+  public int count(long key) {
+    long h = mix(key);
+    return segment(h).count(key, (int) h);
+  }
+  
+  /**
+   * The number of keys with a non-zero count
+   */
+  public int size() {
+    int size = 0;
+    for (Segment segment : segments)
+      size += segment.size();
+    return size;
+  }
+  
+  private static final class Segment {
+    private long[] keys = new long[8];
+    private int[] counts = new int[8];
+    private int size;
+    
+    synchronized int acquire(long key, int h) {
+      int mask = keys.length - 1;
+      int i = h & mask;
+      while (counts[i] != 0) {
+        if (keys[i] == key) {
+          if (counts[i] < MAX)
+            counts[i]++;
+          return counts[i];
+        }
+        i = (i + 1) & mask;
+      }
+      keys[i] = key;
+      counts[i] = 1;
+      if (++size * 3 >= keys.length * 2)
+        resize();
+      return 1;
+    }
+    
+    synchronized int release(long key, int h) {
+      int i = find(key, h);
+      if (i < 0)
+        return 0;
+      int c = --counts[i];
+      if (c == 0) {
+        delete(i);
+        size--;
+      }
+      return c;
+    }
+    
+    synchronized int count(long key, int h) {
+      int i = find(key, h);
+      return i < 0 ? 0 : counts[i];
+    }
+    
+    synchronized int size() {
+      return size;
+    }
+    
+    private int find(long key, int h) {
+      int mask = keys.length - 1;
+      int i = h & mask;
+      while (counts[i] != 0) {
+        if (keys[i] == key)
+          return i;
+        i = (i + 1) & mask;
+      }
+      return -1;
+    }
+    
+    /**
+     * Backward shift deletion, which keeps probe sequences intact 
+     * without leaving tombstones behind.
+     */
+    private void delete(int i) {
+      int mask = keys.length - 1;
+      int j = i;
+      for (;;) {
+        j = (j + 1) & mask;
+        if (counts[j] == 0)
+          break;
+        int k = (int) mix(keys[j]) & mask;
+        if (stays(i, j, k))
+          continue;
+        keys[i] = keys[j];
+        counts[i] = counts[j];
+        i = j;
+      }
+      counts[i] = 0;
+    }
+    
+    private void resize() {
+      long[] oldKeys = keys;
+      int[] oldCounts = counts;
+      keys = new long[oldKeys.length << 1];
+      counts = new int[oldKeys.length << 1];
+      int mask = keys.length - 1;
+      for (int n = 0; n < oldKeys.length; n++) {
+        if (oldCounts[n] == 0)
+          continue;
+        int i = (int) mix(oldKeys[n]) & mask;
+        while (counts[i] != 0)
+          i = (i + 1) & mask;
+        keys[i] = oldKeys[n];
+        counts[i] = oldCounts[n];
+      }
+    }
+  }
+}
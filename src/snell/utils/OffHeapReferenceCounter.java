@@ -0,0 +1,262 @@
+package snell.utils;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static snell.utils.OpenAddressing.segmentIndex;
+import static snell.utils.OpenAddressing.segments;
+import static snell.utils.OpenAddressing.stays;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Funnel;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * Reference counter for very large numbers of values. Rather than 
+ * interning a CountingReference per value, only a 64-bit murmur3 
+ * hash of each value and its count are stored, in direct buffers 
+ * outside the Java heap, so heap usage and GC time do not grow 
+ * with the number of tracked values. Values are hashed through a
+ * Guava Funnel; two distinct values whose 64-bit hashes collide 
+ * share a count.
+ * 
+ * Only hot values, those held by more than one caller at once, 
+ * get an on-heap canonical instance, kept in a bounded cache. 
+ * acquire(V) returns that canonical instance when there is one, 
+ * or the given value otherwise. Nothing is kept on the heap for a
+ * value held once, so the canonical instance is the one passed by
+ * the first acquire that finds the value already held.
+ * 
+ * The semantics otherwise mirror ReferenceCounter: counts are 
+ * capped at 0xFFFF and never drop below zero, and a value is 
+ * forgotten once its count returns to zero.
+ * 
+ * The table is split into independently locked segments, each 
+ * backed by its own direct buffer, and every count update happens
+ * under its segment's lock. Direct memory is bounded by the JVM's 
+ * -XX:MaxDirectMemorySize setting.
+ */
+public final class OffHeapReferenceCounter<V> {
+
+  private static final int MAX = 0xFFFF;
+  private static final int SLOT = 12;
+  private static final int DEFAULT_HOT_VALUES = 10000;
+  private static final int SEGMENTS = segments();
+  private static final HashFunction murmur = 
+    Hashing.murmur3_128();
+  
+  public static <V>OffHeapReferenceCounter<V> create(
+    Funnel<? super V> funnel) {
+      return create(funnel, DEFAULT_HOT_VALUES);
+  }
+  
+  /**
+   * Creates a counter that keeps canonical on-heap instances for 
+   * at most hotValues values.
+   */
+  public static <V>OffHeapReferenceCounter<V> create(
+    Funnel<? super V> funnel, 
+    int hotValues) {
+      checkArgument(hotValues >= 0);
+      return new OffHeapReferenceCounter<V>(funnel, hotValues);
+  }
+  
+  private final Funnel<? super V> funnel;
+  private final ConcurrentMap<V,V> hot;
+  private final Segment[] segments = 
+    new Segment[SEGMENTS];
+  
+  private OffHeapReferenceCounter(
+    Funnel<? super V> funnel, 
+    int hotValues) {
+      this.funnel = checkNotNull(funnel);
+      this.hot = CacheBuilder.newBuilder()
+        .maximumSize(hotValues)
+        .concurrencyLevel(SEGMENTS)
+        .<V,V>build()
+        .asMap();
+      for (int n = 0; n < segments.length; n++)
+        segments[n] = new Segment();
+  }
+  
+  private long hash(V val) {
+    return murmur.hashObject(checkNotNull(val), funnel).asLong();
+  }
+  
+  private Segment segment(long h) {
+    return segments[segmentIndex(h, SEGMENTS)];
+  }
+  
+  /**
+   * Increments the count for the value, returning the canonical 
+   * instance if the value is hot
+   */
+  public V acquire(V val) {
+    long h = hash(val);
+    if (segment(h).acquire(h) == 1)
+      return val;
+    V canonical = hot.putIfAbsent(val, val);
+    return canonical != null ? canonical : val;
+  }
+  
+  /**
+   * Decrements the count for the value, returning the new count
+   */
+  public int release(V val) {
+    long h = hash(val);
+    int c = segment(h).release(h);
+    if (c == 0)
+      hot.remove(val);
+    return c;
+  }
+  
+  public int count(V val) {
+    long h = hash(val);
+    return segment(h).count(h);
+  }
+  
+  /**
+   * The number of values with a non-zero count
+   */
+  public int size() {
+    int size = 0;
+    for (Segment segment : segments)
+      size += segment.size();
+    return size;
+  }
+  
+  /**
+   * The number of bytes of direct memory currently reserved
+   */
+  public long capacity() {
+    long capacity = 0;
+    for (Segment segment : segments)
+      capacity += segment.capacity();
+    return capacity;
+  }
+  
+  /**
+   * Open-addressing table of (hash, count) slots in a direct buffer.
+   * A count of zero marks an empty slot.
+   */
+  private static final class Segment {
+    private ByteBuffer table = allocate(64);
+    private int slots = 64;
+    private int size;
+    
+    private static ByteBuffer allocate(int slots) {
+      return ByteBuffer
+        .allocateDirect(slots * SLOT)
+        .order(ByteOrder.nativeOrder());
+    }
+    
+    private long key(int i) {
+      return table.getLong(i * SLOT);
+    }
+    
+    private int count(int i) {
+      return table.getInt(i * SLOT + 8);
+    }
+    
+    private void put(int i, long key, int count) {
+      table.putLong(i * SLOT, key);
+      table.putInt(i * SLOT + 8, count);
+    }
+    
+    synchronized int acquire(long h) {
+      int mask = slots - 1;
+      int i = (int) h & mask;
+      int c;
+      while ((c = count(i)) != 0) {
+        if (key(i) == h) {
+          if (c < MAX)
+            table.putInt(i * SLOT + 8, ++c);
+          return c;
+        }
+        i = (i + 1) & mask;
+      }
+      put(i, h, 1);
+      if (++size * 3 >= slots * 2)
+        resize();
+      return 1;
+    }
+    
+    synchronized int release(long h) {
+      int i = find(h);
+      if (i < 0)
+        return 0;
+      int c = count(i) - 1;
+      table.putInt(i * SLOT + 8, c);
+      if (c == 0) {
+        delete(i);
+        size--;
+      }
+      return c;
+    }
+    
+    synchronized int count(long h) {
+      int i = find(h);
+      return i < 0 ? 0 : count(i);
+    }
+    
+    synchronized int size() {
+      return size;
+    }
+    
+    synchronized long capacity() {
+      return (long) slots * SLOT;
+    }
+    
+    private int find(long h) {
+      int mask = slots - 1;
+      int i = (int) h & mask;
+      while (count(i) != 0) {
+        if (key(i) == h)
+          return i;
+        i = (i + 1) & mask;
+      }
+      return -1;
+    }
+    
+    /**
+     * Backward shift deletion, see IntReferenceCounter
+     */
+    private void delete(int i) {
+      int mask = slots - 1;
+      int j = i;
+      for (;;) {
+        j = (j + 1) & mask;
+        if (count(j) == 0)
+          break;
+        int k = (int) key(j) & mask;
+        if (stays(i, j, k))
+          continue;
+        put(i, key(j), count(j));
+        i = j;
+      }
+      table.putInt(i * SLOT + 8, 0);
+    }
+    
+    private void resize() {
+      ByteBuffer old = table;
+      int oldSlots = slots;
+      slots = oldSlots << 1;
+      table = allocate(slots);
+      int mask = slots - 1;
+      for (int n = 0; n < oldSlots; n++) {
+        int c = old.getInt(n * SLOT + 8);
+        if (c == 0)
+          continue;
+        long key = old.getLong(n * SLOT);
+        int i = (int) key & mask;
+        while (count(i) != 0)
+          i = (i + 1) & mask;
+        put(i, key, c);
+      }
+    }
+  }
+}
@@ -0,0 +1,55 @@
+package snell.utils;
+
+/**
+ * Helpers shared by the linear probing tables (the primitive
+ * reference counters and the IntPair keyed maps).
+ *
+ * Segmented tables pick the segment from the top bits of a 64-bit
+ * hash and the slot from its low bits. The two never overlap, so
+ * a segment's keys spread over its whole table however large it
+ * grows.
+ */
+final class OpenAddressing {
+
+  private OpenAddressing() {}
+
+  /**
+   * Segment count for the concurrent tables: a power of two, at
+   * least 16 and at least four per processor
+   */
+  static int segments() {
+    int n = Runtime.getRuntime().availableProcessors() * 4;
+    int s = 16;
+    while (s < n) s <<= 1;
+    return s;
+  }
+
+  /**
+   * The segment for a hash, from its top 16 bits
+   */
+  static int segmentIndex(long h, int segments) {
+    return (int)(h >>> 48) & (segments - 1);
+  }
+
+  /**
+   * The MurmurHash3 64-bit finalizer
+   */
+  static long mix(long k) {
+    k ^= k >>> 33;
+    k *= 0xff51afd7ed558ccdL;
+    k ^= k >>> 33;
+    k *= 0xc4ceb9fe1a85ec53L;
+    k ^= k >>> 33;
+    return k;
+  }
+
+  /**
+   * Backward shift deletion: while slot i is being emptied, true
+   * if the entry in slot j, whose home slot is k, has to stay put
+   * because k lies cyclically in (i, j], so moving it back to i
+   * would break its probe sequence
+   */
+  static boolean stays(int i, int j, int k) {
+    return i <= j ? (i < k && k <= j) : (i < k || k <= j);
+  }
+}
@@ -30,6 +30,8 @@ import static com.google.common.primitives.Longs.toByteArray;
  */
 public abstract class Otp extends KeyBase {
 
+  private static final Probe GENERATE = Probe.OTP_GENERATE;
+
   protected Otp(byte[] key, int size) {
     super(key, size);
   }
@@ -83,18 +85,23 @@ public abstract class Otp extends KeyBase {
    * factor
    */
   public String generateNext(){
-    int len = Math.max(1, Math.min(9, size));
-    byte[] h = hmac(getMovingFactor());
-    int o = h[h.length - 1] & 0xf;
-    return 
-      Strings.padStart(
-        Integer.toString(
-          (((h[o] & 0x7f) << 24) |
-          ((h[o + 1] & 0xff) << 16) |
-          ((h[o + 2] & 0xff) << 8) |
-          (h[o + 3] & 0xff))
-            % (int)Math.pow(10, len)),
-        len,'0');
+    long start = GENERATE.begin();
+    try {
+      int len = Math.max(1, Math.min(9, size));
+      byte[] h = hmac(getMovingFactor());
+      int o = h[h.length - 1] & 0xf;
+      return 
+        Strings.padStart(
+          Integer.toString(
+            (((h[o] & 0x7f) << 24) |
+            ((h[o + 1] & 0xff) << 16) |
+            ((h[o + 2] & 0xff) << 8) |
+            (h[o + 3] & 0xff))
+              % (int)Math.pow(10, len)),
+          len,'0');
+    } finally {
+      GENERATE.end(start, alg, size, key);
+    }
   } 
   
   private static class OtpSupplier implements Supplier<String> {
@@ -29,6 +29,14 @@ public class Pair<V1,V2> {
     return v2;
   }
   
+  /**
+   * Returns the canonical instance equal to this one
+   * @see Tuples#canonical
+   */
+  public final Pair<V1,V2> intern() {
+    return Tuples.canonical(this);
+  }
+  
   public String toString() {
     return Objects.toStringHelper("Pair")
       .add("one", one())
@@ -51,6 +59,8 @@ public class Pair<V1,V2> {
     if (getClass() != obj.getClass()) 
       return false;
     Pair<V1,V2> other = (Pair<V1,V2>) obj;
+    if (hash != 1 && other.hash != 1 && hash != other.hash)
+      return false;
     if (!Objects.equal(v1,other.v1) || 
         !Objects.equal(v2,other.v2)) 
       return false;
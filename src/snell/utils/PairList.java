@@ -0,0 +1,181 @@
+package snell.utils;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+
+/**
+ * Columnar list of pairs. Rather than holding a Pair object per 
+ * element, each component is kept in its own array, which saves 
+ * the per-element object header, cached hash and reference and 
+ * keeps scans over one component sequential in memory.
+ * 
+ * Rows can be sorted by either component and then binary searched
+ * on that component. Iterating with a Cursor allocates nothing; 
+ * get(int) materializes a Pair only when one is really needed.
+ * Not thread-safe.
+ */
+public final class PairList<V1,V2> {
+
+  public static <V1,V2>PairList<V1,V2> create() {
+    return new PairList<V1,V2>(Columns.DEFAULT_CAPACITY);
+  }
+  
+  public static <V1,V2>PairList<V1,V2> createWithExpectedSize(int expectedSize) {
+    checkArgument(expectedSize >= 0);
+    return new PairList<V1,V2>(expectedSize);
+  }
+  
+  private Object[] ones;
+  private Object[] twos;
+  private int size;
+  
+  private PairList(int capacity) {
+    ones = new Object[capacity];
+    twos = new Object[capacity];
+  }
+  
+  private void ensureCapacity(int needed) {
+    if (needed > ones.length) {
+      int capacity = Columns.grow(ones.length, needed);
+      ones = Arrays.copyOf(ones, capacity);
+      twos = Arrays.copyOf(twos, capacity);
+    }
+  }
+  
+  public PairList<V1,V2> add(V1 v1, V2 v2) {
+    ensureCapacity(size + 1);
+    ones[size] = v1;
+    twos[size] = v2;
+    size++;
+    return this;
+  }
+  
+  public PairList<V1,V2> add(Pair<? extends V1,? extends V2> pair) {
+    return add(pair.one(), pair.two());
+  }
+  
+  public PairList<V1,V2> addAll(Iterable<? extends Pair<? extends V1,? extends V2>> pairs) {
+    checkNotNull(pairs);
+    if (pairs instanceof Collection)
+      ensureCapacity(size + ((Collection<?>)pairs).size());
+    for (Pair<? extends V1,? extends V2> pair : pairs)
+      add(pair.one(), pair.two());
+    return this;
+  }
+  
+  public PairList<V1,V2> addAll(PairList<? extends V1,? extends V2> other) {
+    ensureCapacity(size + other.size);
+    System.arraycopy(other.ones, 0, ones, size, other.size);
+    System.arraycopy(other.twos, 0, twos, size, other.size);
+    size += other.size;
+    return this;
+  }
+  
+  @SuppressWarnings("unchecked")
+  public V1 one(int index) {
+    checkElementIndex(index, size);
+    return (V1) ones[index];
+  }
+  
+  @SuppressWarnings("unchecked")
+  public V2 two(int index) {
+    checkElementIndex(index, size);
+    return (V2) twos[index];
+  }
+  
+  public Pair<V1,V2> get(int index) {
+    return Pair.of(one(index), two(index));
+  }
+  
+  public int size() {
+    return size;
+  }
+  
+  public boolean isEmpty() {
+    return size == 0;
+  }
+  
+  public void clear() {
+    Arrays.fill(ones, 0, size, null);
+    Arrays.fill(twos, 0, size, null);
+    size = 0;
+  }
+  
+  public void trimToSize() {
+    ones = Arrays.copyOf(ones, size);
+    twos = Arrays.copyOf(twos, size);
+  }
+  
+  /**
+   * Stably sorts the rows by their first component
+   */
+  public PairList<V1,V2> sortByOne(Comparator<? super V1> cmp) {
+    return reorder(Columns.order(ones, size, checkNotNull(cmp)));
+  }
+  
+  /**
+   * Stably sorts the rows by their second component
+   */
+  public PairList<V1,V2> sortByTwo(Comparator<? super V2> cmp) {
+    return reorder(Columns.order(twos, size, checkNotNull(cmp)));
+  }
+  
+  private PairList<V1,V2> reorder(int[] order) {
+    ones = Columns.permute(ones, order);
+    twos = Columns.permute(twos, order);
+    return this;
+  }
+  
+  /**
+   * Binary searches a list sorted by sortByOne with the same 
+   * comparator, returning the first matching row or 
+   * -(insertion point) - 1
+   */
+  public int searchOne(V1 key, Comparator<? super V1> cmp) {
+    return Columns.search(ones, size, key, cmp);
+  }
+  
+  public int searchTwo(V2 key, Comparator<? super V2> cmp) {
+    return Columns.search(twos, size, key, cmp);
+  }
+  
+  /**
+   * Returns a cursor positioned before the first row. A cursor can
+   * be rewound with reset() and reused, so iterating allocates 
+   * nothing beyond the cursor itself.
+   */
+  public Cursor<V1,V2> cursor() {
+    return new Cursor<V1,V2>(this);
+  }
+  
+  public static final class Cursor<V1,V2> {
+    private final PairList<V1,V2> list;
+    private int index = -1;
+    Cursor(PairList<V1,V2> list) {
+      this.list = list;
+    }
+    public boolean next() {
+      return ++index < list.size;
+    }
+    public Cursor<V1,V2> reset() {
+      index = -1;
+      return this;
+    }
+    public int index() {
+      return index;
+    }
+    @SuppressWarnings("unchecked")
+    public V1 one() {
+      return (V1) list.ones[index];
+    }
+    @SuppressWarnings("unchecked")
+    public V2 two() {
+      return (V2) list.twos[index];
+    }
+  }
+}
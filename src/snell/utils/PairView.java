@@ -0,0 +1,94 @@
+package snell.utils;
+
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Flyweight over a buffer of pairs written with Codecs.pair. The 
+ * view walks the records between the buffer's position and limit 
+ * like a cursor and decodes each component straight out of the 
+ * buffer only when asked for, so scanning a large (possibly memory
+ * mapped) file allocates nothing beyond the components actually 
+ * read. The buffer itself is never modified.
+ */
+public final class PairView<V1,V2> {
+
+  public static <V1,V2>PairView<V1,V2> over(
+    ByteBuffer buf, 
+    Codec<V1> one, 
+    Codec<V2> two) {
+      return new PairView<V1,V2>(buf, one, two);
+  }
+  
+  private final ByteBuffer buf;
+  private final Codec<V1> one;
+  private final Codec<V2> two;
+  private final int start;
+  private int offset = -1;
+  private int split;
+  private int end;
+  
+  private PairView(
+    ByteBuffer buf, 
+    Codec<V1> one, 
+    Codec<V2> two) {
+      this.buf = checkNotNull(buf);
+      this.one = checkNotNull(one);
+      this.two = checkNotNull(two);
+      this.start = buf.position();
+      this.end = start;
+  }
+  
+  /**
+   * Advances to the next record, returning false at the limit
+   */
+  public boolean next() {
+    if (end >= buf.limit())
+      return false;
+    at(end);
+    return true;
+  }
+  
+  /**
+   * Positions the view on the record at the given absolute offset,
+   * which must lie between the buffer's starting position and limit
+   */
+  public PairView<V1,V2> at(int offset) {
+    checkElementIndex(offset - start, buf.limit() - start);
+    this.offset = offset;
+    this.split = offset + one.length(buf, offset);
+    this.end = split + two.length(buf, split);
+    return this;
+  }
+  
+  public PairView<V1,V2> reset() {
+    offset = -1;
+    end = start;
+    return this;
+  }
+  
+  /**
+   * The absolute offset of the current record
+   */
+  public int offset() {
+    return offset;
+  }
+  
+  public int length() {
+    return end - offset;
+  }
+  
+  public V1 one() {
+    return one.read(buf, offset);
+  }
+  
+  public V2 two() {
+    return two.read(buf, split);
+  }
+  
+  public Pair<V1,V2> get() {
+    return Pair.of(one(), two());
+  }
+}
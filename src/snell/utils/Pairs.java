@@ -1,20 +1,124 @@
 package snell.utils;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Throwables.propagate;
 
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
 public final class Pairs {
 
   private Pairs() {}
   
+  private static final int MIN_CHUNK = 4096;
+  
+  /**
+   * Decides the value kept when a key occurs more than once while 
+   * building a map. existing may be null when the first value seen 
+   * for the key was null. In parallel builds duplicates arrive in no 
+   * particular order, so policies used there should not depend on
+   * which value is seen first.
+   */
+  public static interface Merge<V> {
+    V merge(V existing, V incoming);
+  }
+  
+  public static <V>Merge<V> keepFirst() {
+    return new Merge<V>() {
+      public V merge(V existing, V incoming) {
+        return existing;
+      }
+    };
+  }
+  
+  public static <V>Merge<V> keepLast() {
+    return new Merge<V>() {
+      public V merge(V existing, V incoming) {
+        return incoming;
+      }
+    };
+  }
+  
+  public static <V>Merge<V> rejectDuplicates() {
+    return new Merge<V>() {
+      public V merge(V existing, V incoming) {
+        throw new IllegalArgumentException(
+          "Duplicate key: " + existing + ", " + incoming);
+      }
+    };
+  }
+  
+  /**
+   * Initial capacity for a HashMap that will hold expectedSize 
+   * entries without rehashing
+   */
+  static int capacity(int expectedSize) {
+    checkArgument(expectedSize >= 0);
+    return expectedSize < 3 ? 
+      expectedSize + 1 : 
+      (int)Math.min(Integer.MAX_VALUE, expectedSize / 3L * 4 + 4);
+  }
+  
+  private static int size(Iterable<?> i, int otherwise) {
+    return i instanceof Collection ? 
+      ((Collection<?>)i).size() : 
+      otherwise;
+  }
+  
+  private static <V1,V2>Map<V1,V2> fill(
+    Map<V1,V2> map, 
+    Iterator<? extends Pair<? extends V1,? extends V2>> pairs, 
+    Merge<V2> merge) {
+      checkNotNull(merge);
+      while (pairs.hasNext()) {
+        Pair<? extends V1,? extends V2> pair = pairs.next();
+        V1 key = pair.one();
+        V2 val = pair.two();
+        V2 prev = map.get(key);
+        // a present key may map to null, which must still be merged
+        if (prev != null || map.containsKey(key))
+          val = merge.merge(prev, val);
+        map.put(key, val);
+      }
+      return map;
+  }
+  
+  private static <V1,V2>void fill(
+    ConcurrentMap<V1,V2> map, 
+    List<? extends Pair<? extends V1,? extends V2>> pairs,
+    Merge<V2> merge) {
+      for (Pair<? extends V1,? extends V2> pair : pairs) {
+        V1 key = pair.one();
+        V2 val = pair.two();
+        for (;;) {
+          V2 prev = map.putIfAbsent(key, val);
+          if (prev == null || 
+              map.replace(key, prev, merge.merge(prev, val)))
+            break;
+        }
+      }
+  }
+  
   public static <V1,V2>Map<V1,V2> asLinkedHashMap(
     Pair<V1,V2>... pairs) {
     checkNotNull(pairs);
-    Map<V1,V2> map = Maps.newLinkedHashMap();
+    Map<V1,V2> map = 
+      new LinkedHashMap<V1,V2>(capacity(pairs.length));
     for (Pair<V1,V2> pair : pairs)
       map.put(pair.one(),pair.two());
     return map;
@@ -23,7 +127,8 @@ public final class Pairs {
   public static <V1,V2>Map<V1,V2> asHashMap(
     Pair<V1,V2>... pairs) {
     checkNotNull(pairs);
-    Map<V1,V2> map = Maps.newHashMap();
+    Map<V1,V2> map = 
+      Maps.newHashMapWithExpectedSize(pairs.length);
     for (Pair<V1,V2> pair : pairs)
       map.put(pair.one(),pair.two());
     return map;
@@ -44,35 +149,161 @@ public final class Pairs {
     checkNotNull(triples);
     ImmutableMap.Builder<V1,Pair<V2,V3>> builder = 
       ImmutableMap.builder();
-    for (Triple<V1,V2,V3> triple : triples) {
-      Pair<V1,Pair<V2,V3>> split = 
-        triple.splitRight();
-      builder.put(split.one(), split.two());
-    }
+    for (Triple<V1,V2,V3> triple : triples)
+      builder.put(triple.one(), Pair.of(triple.two(), triple.three()));
     return builder.build();
   }
   
   public static <V1,V2,V3>Map<V1,Pair<V2,V3>> asHashMap(
     Triple<V1,V2,V3>...triples) {
     checkNotNull(triples);
-    Map<V1,Pair<V2,V3>> map = Maps.newHashMap();
-    for (Triple<V1,V2,V3> triple : triples) {
-      Pair<V1,Pair<V2,V3>> split = 
-        triple.splitRight();
-      map.put(split.one(), split.two());
-    }
+    Map<V1,Pair<V2,V3>> map = 
+      Maps.newHashMapWithExpectedSize(triples.length);
+    for (Triple<V1,V2,V3> triple : triples)
+      map.put(triple.one(), Pair.of(triple.two(), triple.three()));
     return map;
   }
   
   public static <V1,V2,V3>Map<V1,Pair<V2,V3>> asLinkedHashMap(
     Triple<V1,V2,V3>...triples) {
     checkNotNull(triples);
-    Map<V1,Pair<V2,V3>> map = Maps.newLinkedHashMap();
-    for (Triple<V1,V2,V3> triple : triples) {
-      Pair<V1,Pair<V2,V3>> split = 
-        triple.splitRight();
-      map.put(split.one(), split.two());
+    Map<V1,Pair<V2,V3>> map = 
+      new LinkedHashMap<V1,Pair<V2,V3>>(capacity(triples.length));
+    for (Triple<V1,V2,V3> triple : triples)
+      map.put(triple.one(), Pair.of(triple.two(), triple.three()));
+    return map;
+  }
+  
+  /**
+   * Builds a two-key (V1,V2) -> V3 lookup table. Unlike the Map
+   * variants above, lookups by the first two components need no 
+   * composite key.
+   */
+  public static <V1,V2,V3>TripleTable<V1,V2,V3> asTable(
+    Iterable<? extends Triple<? extends V1,? extends V2,? extends V3>> triples) {
+    return TripleTable.copyOf(triples);
+  }
+  
+  /**
+   * Builds a HashMap in a single pass, presized when the pairs are
+   * a Collection. Later duplicates replace earlier ones.
+   */
+  public static <V1,V2>Map<V1,V2> asHashMap(
+    Iterable<? extends Pair<? extends V1,? extends V2>> pairs) {
+    return asHashMap(pairs, Pairs.<V2>keepLast());
+  }
+  
+  public static <V1,V2>Map<V1,V2> asHashMap(
+    Iterable<? extends Pair<? extends V1,? extends V2>> pairs,
+    Merge<V2> merge) {
+    checkNotNull(pairs);
+    return asHashMap(pairs.iterator(), size(pairs, 16), merge);
+  }
+  
+  /**
+   * Builds a HashMap presized for expectedSize entries from pairs 
+   * that are produced on the fly rather than held in memory
+   */
+  public static <V1,V2>Map<V1,V2> asHashMap(
+    Iterator<? extends Pair<? extends V1,? extends V2>> pairs,
+    int expectedSize,
+    Merge<V2> merge) {
+    checkNotNull(pairs);
+    Map<V1,V2> map = 
+      Maps.newHashMapWithExpectedSize(expectedSize);
+    return fill(map, pairs, merge);
+  }
+  
+  public static <V1,V2>Map<V1,V2> asLinkedHashMap(
+    Iterable<? extends Pair<? extends V1,? extends V2>> pairs) {
+    return asLinkedHashMap(pairs, Pairs.<V2>keepLast());
+  }
+  
+  public static <V1,V2>Map<V1,V2> asLinkedHashMap(
+    Iterable<? extends Pair<? extends V1,? extends V2>> pairs,
+    Merge<V2> merge) {
+    checkNotNull(pairs);
+    return asLinkedHashMap(pairs.iterator(), size(pairs, 16), merge);
+  }
+  
+  public static <V1,V2>Map<V1,V2> asLinkedHashMap(
+    Iterator<? extends Pair<? extends V1,? extends V2>> pairs,
+    int expectedSize,
+    Merge<V2> merge) {
+    checkNotNull(pairs);
+    Map<V1,V2> map = 
+      new LinkedHashMap<V1,V2>(capacity(expectedSize));
+    return fill(map, pairs, merge);
+  }
+  
+  /**
+   * Builds an ImmutableMap, resolving duplicate keys with the merge
+   * policy rather than failing. Iteration order follows the first 
+   * occurrence of each key.
+   */
+  public static <V1,V2>Map<V1,V2> asImmutableMap(
+    Iterable<? extends Pair<? extends V1,? extends V2>> pairs,
+    Merge<V2> merge) {
+    return ImmutableMap.copyOf(asLinkedHashMap(pairs, merge));
+  }
+  
+  /**
+   * Builds a ConcurrentHashMap, presized for the input, by splitting
+   * the pairs into chunks that are inserted in parallel on the given
+   * executor. Duplicate keys are resolved atomically with the merge
+   * policy. Neither keys nor values may be null.
+   */
+  public static <V1,V2>ConcurrentMap<V1,V2> asConcurrentMap(
+    Iterable<? extends Pair<? extends V1,? extends V2>> pairs,
+    final Merge<V2> merge,
+    ExecutorService exec) {
+    checkNotNull(pairs);
+    checkNotNull(merge);
+    checkNotNull(exec);
+    final List<? extends Pair<? extends V1,? extends V2>> list = 
+      pairs instanceof List && pairs instanceof RandomAccess ? 
+        (List<? extends Pair<? extends V1,? extends V2>>) pairs : 
+        Lists.newArrayList(pairs);
+    int size = list.size();
+    int chunks = Math.max(1, Math.min(
+      Runtime.getRuntime().availableProcessors(), 
+      size / MIN_CHUNK));
+    final ConcurrentMap<V1,V2> map = 
+      new ConcurrentHashMap<V1,V2>(capacity(size), 0.75f, chunks);
+    if (chunks == 1) {
+      fill(map, list, merge);
+      return map;
+    }
+    List<Callable<Void>> tasks = Lists.newArrayListWithCapacity(chunks);
+    for (int n = 0; n < chunks; n++) {
+      final int from = (int)((long)size * n / chunks);
+      final int to = (int)((long)size * (n + 1) / chunks);
+      tasks.add(new Callable<Void>() {
+        public Void call() {
+          fill(map, list.subList(from, to), merge);
+          return null;
+        }
+      });
+    }
+    try {
+      for (Future<Void> future : exec.invokeAll(tasks))
+        future.get();
+    } catch (ExecutionException e) {
+      throw propagate(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw propagate(e);
     }
     return map;
   }
+  
+  /**
+   * Builds an ImmutableMap through a parallel asConcurrentMap
+   */
+  public static <V1,V2>Map<V1,V2> asImmutableMap(
+    Iterable<? extends Pair<? extends V1,? extends V2>> pairs,
+    Merge<V2> merge,
+    ExecutorService exec) {
+    return ImmutableMap.copyOf(asConcurrentMap(pairs, merge, exec));
+  }
 }
@@ -0,0 +1,238 @@
+package snell.utils;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.nio.charset.Charset;
+import java.security.Key;
+import java.security.MessageDigest;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.MapMaker;
+import com.google.common.collect.Maps;
+import com.google.common.primitives.Longs;
+
+/**
+ * Named timing probe around an expensive library operation (signing,
+ * MACs, key generation, reference counting). A probe is disabled by
+ * default and then costs a single volatile read per operation. Once
+ * enabled with a Listener and a threshold, every operation that takes 
+ * at least the threshold is reported as an Event carrying the 
+ * algorithm, payload size and a fingerprint identifying the key 
+ * involved, so slow operations can be singled out in production. A 
+ * Listener can forward events to a logger, metrics system or flight
+ * recorder.
+ * 
+ * A key's fingerprint is the first 8 bytes of the SHA-256 of its
+ * algorithm and encoded form, so events for the same key correlate
+ * across Key instances without revealing it. It is computed once 
+ * per Key instance, and only when an event is reported. Keys that
+ * cannot be encoded, and the values counted by the refcount probes,
+ * are identified by their hashCode.
+ * 
+ * The built in probes are:
+ * <ul>
+ *   <li>crypto.sig, crypto.sigval, crypto.hmac, crypto.hmacval</li>
+ *   <li>otp.generate, apikey.generate</li>
+ *   <li>refcount.acquire, refcount.release (size is the count after
+ *       the operation)</li>
+ * </ul>
+ */
+public final class Probe {
+
+  public static interface Listener {
+    void record(Event event);
+  }
+  
+  /**
+   * Returned by begin() when the probe is disabled
+   */
+  static final long OFF = Long.MIN_VALUE;
+  
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+  
+  private static final ConcurrentMap<String,Probe> probes = 
+    Maps.newConcurrentMap();
+  private static final ConcurrentMap<Key,Long> fingerprints = 
+    new MapMaker().weakKeys().makeMap();
+  
+  public static final Probe CRYPTO_SIG = named("crypto.sig");
+  public static final Probe CRYPTO_SIGVAL = named("crypto.sigval");
+  public static final Probe CRYPTO_HMAC = named("crypto.hmac");
+  public static final Probe CRYPTO_HMACVAL = named("crypto.hmacval");
+  public static final Probe OTP_GENERATE = named("otp.generate");
+  public static final Probe APIKEY_GENERATE = named("apikey.generate");
+  public static final Probe REFCOUNT_ACQUIRE = named("refcount.acquire");
+  public static final Probe REFCOUNT_RELEASE = named("refcount.release");
+  
+  /**
+   * Returns the probe with the given name, creating it if needed
+   */
+  public static Probe named(String name) {
+    checkNotNull(name);
+    Probe probe = probes.get(name);
+    if (probe == null) {
+      Probe n = new Probe(name);
+      probe = probes.putIfAbsent(name, n);
+      if (probe == null)
+        probe = n;
+    }
+    return probe;
+  }
+  
+  public static Collection<Probe> all() {
+    return Collections.unmodifiableCollection(probes.values());
+  }
+  
+  public static void enableAll(
+    Listener listener, 
+    long threshold, 
+    TimeUnit unit) {
+      for (Probe probe : probes.values())
+        probe.enable(listener, threshold, unit);
+  }
+  
+  public static void disableAll() {
+    for (Probe probe : probes.values())
+      probe.disable();
+  }
+  
+  private final String name;
+  private volatile Listener listener;
+  private volatile long threshold;
+  
+  private Probe(String name) {
+    this.name = name;
+  }
+  
+  public String name() {
+    return name;
+  }
+  
+  public Probe enable(
+    Listener listener, 
+    long threshold, 
+    TimeUnit unit) {
+      checkArgument(threshold >= 0);
+      this.threshold = unit.toNanos(threshold);
+      this.listener = checkNotNull(listener);
+      return this;
+  }
+  
+  public Probe disable() {
+    this.listener = null;
+    return this;
+  }
+  
+  public boolean isEnabled() {
+    return listener != null;
+  }
+  
+  /**
+   * Marks the start of an operation, returning OFF when disabled
+   */
+  long begin() {
+    return listener == null ? OFF : System.nanoTime();
+  }
+  
+  /**
+   * Marks the end of an operation started with begin(), reporting
+   * it if it took at least the threshold
+   */
+  void end(long start, String alg, long size, Object key) {
+    if (start == OFF)
+      return;
+    long duration = System.nanoTime() - start;
+    Listener l = listener;
+    if (l != null && duration >= threshold)
+      l.record(new Event(
+        name, alg, size, fingerprint(key), duration));
+  }
+  
+  private static long fingerprint(Object key) {
+    if (key == null)
+      return 0;
+    if (!(key instanceof Key))
+      return key.hashCode();
+    Long fp = fingerprints.get(key);
+    if (fp == null) {
+      fp = fingerprint((Key)key);
+      fingerprints.put((Key)key, fp);
+    }
+    return fp;
+  }
+  
+  private static long fingerprint(Key key) {
+    byte[] enc = key.getEncoded();
+    if (enc == null)
+      return key.hashCode();
+    try {
+      MessageDigest md = MessageDigest.getInstance("SHA-256");
+      md.update(String.valueOf(key.getAlgorithm()).getBytes(UTF8));
+      md.update((byte)0);
+      return Longs.fromByteArray(md.digest(enc));
+    } catch (Throwable t) {
+      return key.hashCode();
+    }
+  }
+  
+  public String toString() {
+    return Objects.toStringHelper("Probe")
+      .add("name", name)
+      .add("enabled", isEnabled())
+      .add("thresholdNanos", threshold)
+      .toString();
+  }
+  
+  public static final class Event {
+    private final String name;
+    private final String alg;
+    private final long size;
+    private final long key;
+    private final long duration;
+    private final String thread = 
+      Thread.currentThread().getName();
+    Event(String name, String alg, long size, long key, long duration) {
+      this.name = name;
+      this.alg = alg;
+      this.size = size;
+      this.key = key;
+      this.duration = duration;
+    }
+    public String name() {
+      return name;
+    }
+    public String algorithm() {
+      return alg;
+    }
+    public long size() {
+      return size;
+    }
+    /**
+     * Identifies the key (or counted value) involved, 0 if none
+     */
+    public long keyFingerprint() {
+      return key;
+    }
+    public long duration(TimeUnit unit) {
+      return unit.convert(duration, TimeUnit.NANOSECONDS);
+    }
+    public String thread() {
+      return thread;
+    }
+    public String toString() {
+      return Objects.toStringHelper("Event")
+        .add("name", name)
+        .add("alg", alg)
+        .add("size", size)
+        .add("key", Long.toHexString(key))
+        .add("durationNanos", duration)
+        .add("thread", thread)
+        .toString();
+    }
+  }
+}
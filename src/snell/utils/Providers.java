@@ -0,0 +1,390 @@
+package snell.utils;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.Key;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.Provider;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.Security;
+import java.security.Signature;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+/**
+ * Optional per algorithm JCA provider selection. select(alg) runs a
+ * short micro-benchmark of every installed provider offering the Mac
+ * or Signature algorithm, and caches the fastest one whose output is
+ * correct; the library's engines are then created from it. A key 
+ * the chosen provider rejects (say one held by a PKCS#11 token) 
+ * falls back to the default JCA lookup, which picks a provider that
+ * accepts it, as do algorithms that were never selected. Algorithm
+ * names are matched case insensitively. Algorithms listed (comma 
+ * separated) in the snell.utils.providers system property are 
+ * selected when this class is first used.
+ */
+public final class Providers {
+
+  public static final String PROPERTY = "snell.utils.providers";
+
+  private static final int PAYLOAD = 1024;
+
+  private Providers() {}
+
+  private static final ConcurrentMap<String,Selection> selections =
+    Maps.newConcurrentMap();
+
+  static {
+    String algs = System.getProperty(PROPERTY);
+    if (algs != null)
+      for (String alg : Splitter.on(',').trimResults().omitEmptyStrings().split(algs))
+        try {
+          select(alg);
+        } catch (RuntimeException e) {
+          // no working provider, the default lookup is kept
+        }
+  }
+
+  public static Selection select(String alg) {
+    return select(alg, 50, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Benchmarks each provider of the Mac or Signature algorithm for
+   * roughly the given time and caches the fastest working one. Throws
+   * IllegalArgumentException if no provider works.
+   */
+  public static Selection select(String alg, long time, TimeUnit unit) {
+    checkNotNull(alg);
+    checkArgument(time > 0);
+    long nanos = unit.toNanos(time);
+    Selection selection =
+      isMac(alg) ?
+        benchmarkMac(alg, nanos) :
+        benchmarkSignature(alg, nanos);
+    selections.put(name(alg), selection);
+    return selection;
+  }
+
+  /**
+   * The current selection for the algorithm, or null if it uses the
+   * default lookup
+   */
+  public static Selection selection(String alg) {
+    return selections.get(name(checkNotNull(alg)));
+  }
+
+  public static Map<String,Selection> selections() {
+    return ImmutableMap.copyOf(selections);
+  }
+
+  public static void clear(String alg) {
+    selections.remove(name(checkNotNull(alg)));
+  }
+
+  public static void clearAll() {
+    selections.clear();
+  }
+
+  /**
+   * Returns a Mac initialized with the key
+   */
+  public static Mac mac(String alg, Key key)
+    throws GeneralSecurityException {
+      Selection selection = selections.get(name(alg));
+      if (selection != null) {
+        Mac mac = Mac.getInstance(alg, selection.provider);
+        try {
+          mac.init(key);
+          return mac;
+        } catch (InvalidKeyException e) {
+          // not a key the selected provider can use
+        }
+      }
+      Mac mac = Mac.getInstance(alg);
+      mac.init(key);
+      return mac;
+  }
+
+  /**
+   * Returns a Signature initialized for signing with the key
+   */
+  public static Signature signer(String alg, PrivateKey key)
+    throws GeneralSecurityException {
+      Selection selection = selections.get(name(alg));
+      if (selection != null) {
+        Signature sig = Signature.getInstance(alg, selection.provider);
+        try {
+          sig.initSign(key);
+          return sig;
+        } catch (InvalidKeyException e) {
+          // not a key the selected provider can use
+        }
+      }
+      Signature sig = Signature.getInstance(alg);
+      sig.initSign(key);
+      return sig;
+  }
+
+  /**
+   * Returns a Signature initialized for verifying with the key
+   */
+  public static Signature verifier(String alg, PublicKey key)
+    throws GeneralSecurityException {
+      Selection selection = selections.get(name(alg));
+      if (selection != null) {
+        Signature sig = Signature.getInstance(alg, selection.provider);
+        try {
+          sig.initVerify(key);
+          return sig;
+        } catch (InvalidKeyException e) {
+          // not a key the selected provider can use
+        }
+      }
+      Signature sig = Signature.getInstance(alg);
+      sig.initVerify(key);
+      return sig;
+  }
+
+  /**
+   * JCA algorithm names are case insensitive
+   */
+  private static String name(String alg) {
+    return alg.toUpperCase(Locale.ENGLISH);
+  }
+
+  /**
+   * Looks the algorithm up through getInstance rather than 
+   * Provider.getService, so aliases and case are resolved
+   */
+  private static boolean isMac(String alg) {
+    try {
+      Mac.getInstance(alg);
+      return true;
+    } catch (NoSuchAlgorithmException e) {
+      return false;
+    }
+  }
+
+  private static boolean provides(Provider provider, String type, String alg) {
+    try {
+      if (type.equals("Mac"))
+        Mac.getInstance(alg, provider);
+      else
+        Signature.getInstance(alg, provider);
+      return true;
+    } catch (NoSuchAlgorithmException e) {
+      return false;
+    }
+  }
+
+  private static Selection benchmarkMac(String alg, long nanos) {
+    byte[] mat = randomBytes(PAYLOAD);
+    Key key = new SecretKeySpec(randomBytes(32), alg);
+    byte[] expected;
+    try {
+      Mac mac = Mac.getInstance(alg);
+      mac.init(key);
+      expected = mac.doFinal(mat);
+    } catch (Throwable t) {
+      throw new IllegalArgumentException(alg, t);
+    }
+    Selection.Builder builder = new Selection.Builder(alg, "Mac");
+    for (Provider provider : Security.getProviders()) {
+      if (!provides(provider, "Mac", alg))
+        continue;
+      try {
+        Mac mac = Mac.getInstance(alg, provider);
+        mac.init(key);
+        if (!Arrays.equals(expected, mac.doFinal(mat)))
+          throw new IllegalStateException("Incorrect output");
+        run(mac, mat, nanos / 4);
+        long start = System.nanoTime();
+        long ops = run(mac, mat, nanos);
+        builder.rate(provider, ops, System.nanoTime() - start);
+      } catch (Throwable t) {
+        builder.failure(provider, t);
+      }
+    }
+    return builder.build();
+  }
+
+  private static long run(Mac mac, byte[] mat, long nanos) {
+    long end = System.nanoTime() + nanos, ops = 0;
+    do {
+      mac.update(mat);
+      mac.doFinal();
+      ops++;
+    } while (System.nanoTime() < end);
+    return ops;
+  }
+
+  private static Selection benchmarkSignature(String alg, long nanos) {
+    byte[] mat = randomBytes(PAYLOAD);
+    KeyPair pair;
+    try {
+      Signature.getInstance(alg);
+      pair = KeyPairGenerator.getInstance(keyAlgorithm(alg))
+        .generateKeyPair();
+    } catch (Throwable t) {
+      throw new IllegalArgumentException(alg, t);
+    }
+    Selection.Builder builder = new Selection.Builder(alg, "Signature");
+    for (Provider provider : Security.getProviders()) {
+      if (!provides(provider, "Signature", alg))
+        continue;
+      try {
+        Signature sig = Signature.getInstance(alg, provider);
+        Signature ver = Signature.getInstance(alg, provider);
+        sig.initSign(pair.getPrivate());
+        ver.initVerify(pair.getPublic());
+        run(sig, ver, mat, nanos / 4);
+        long start = System.nanoTime();
+        long ops = run(sig, ver, mat, nanos);
+        builder.rate(provider, ops, System.nanoTime() - start);
+      } catch (Throwable t) {
+        builder.failure(provider, t);
+      }
+    }
+    return builder.build();
+  }
+
+  /**
+   * Counts sign + verify round trips, failing if a signature does
+   * not verify
+   */
+  private static long run(
+    Signature sig,
+    Signature ver,
+    byte[] mat,
+    long nanos)
+      throws Exception {
+    long end = System.nanoTime() + nanos, ops = 0;
+    do {
+      sig.update(mat);
+      byte[] dat = sig.sign();
+      ver.update(mat);
+      if (!ver.verify(dat))
+        throw new IllegalStateException("Incorrect output");
+      ops++;
+    } while (System.nanoTime() < end);
+    return ops;
+  }
+
+  /**
+   * SHA256withRSA -> RSA, SHA256withECDSA -> EC
+   */
+  private static String keyAlgorithm(String alg) {
+    int n = alg.toUpperCase().indexOf("WITH");
+    checkArgument(n > 0, "Unknown algorithm %s", alg);
+    String key = alg.substring(n + 4);
+    return key.toUpperCase().startsWith("ECDSA") ? "EC" : key;
+  }
+
+  private static byte[] randomBytes(int count) {
+    byte[] buf = new byte[count];
+    new SecureRandom().nextBytes(buf);
+    return buf;
+  }
+
+  /**
+   * The provider chosen for an algorithm along with the measured
+   * throughput (operations per second) of each working provider
+   * and the reason each other provider was rejected
+   */
+  public static final class Selection {
+    private final String alg;
+    private final String type;
+    private final Provider provider;
+    private final ImmutableMap<String,Double> rates;
+    private final ImmutableMap<String,String> failures;
+    private Selection(
+      String alg,
+      String type,
+      Provider provider,
+      ImmutableMap<String,Double> rates,
+      ImmutableMap<String,String> failures) {
+        this.alg = alg;
+        this.type = type;
+        this.provider = provider;
+        this.rates = rates;
+        this.failures = failures;
+    }
+    public String algorithm() {
+      return alg;
+    }
+    /**
+     * Mac or Signature
+     */
+    public String type() {
+      return type;
+    }
+    public Provider provider() {
+      return provider;
+    }
+    public Map<String,Double> rates() {
+      return rates;
+    }
+    public Map<String,String> failures() {
+      return failures;
+    }
+    public String toString() {
+      return Objects.toStringHelper("Selection")
+        .add("alg", alg)
+        .add("type", type)
+        .add("provider", provider.getName())
+        .add("rates", rates)
+        .add("failures", failures)
+        .toString();
+    }
+
+    private static final class Builder {
+      private final String alg;
+      private final String type;
+      private final ImmutableMap.Builder<String,Double> rates =
+        ImmutableMap.builder();
+      private final ImmutableMap.Builder<String,String> failures =
+        ImmutableMap.builder();
+      private Provider best;
+      private double bestRate;
+      Builder(String alg, String type) {
+        this.alg = alg;
+        this.type = type;
+      }
+      void rate(Provider provider, long ops, long nanos) {
+        double rate = ops * 1e9 / nanos;
+        rates.put(provider.getName(), rate);
+        if (best == null || rate > bestRate) {
+          best = provider;
+          bestRate = rate;
+        }
+      }
+      void failure(Provider provider, Throwable t) {
+        failures.put(provider.getName(), String.valueOf(t));
+      }
+      Selection build() {
+        checkArgument(best != null, "No working provider for %s", alg);
+        return new Selection(
+          alg, type, best, rates.build(), failures.build());
+      }
+    }
+  }
+}
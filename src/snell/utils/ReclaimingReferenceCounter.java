@@ -0,0 +1,207 @@
+package snell.utils;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static snell.utils.CountingReference.ref;
+import static snell.utils.CountingReference.scalableRef;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Reference counter variant that strongly holds each acquired 
+ * value until its count drops back to zero, then hands it to a 
+ * ZeroListener so that pooled resources (connections, buffers,
+ * file handles) can be closed deterministically rather than 
+ * whenever the garbage collector gets around to it.
+ * 
+ * With a grace period of zero the listener is invoked on the 
+ * releasing thread. Otherwise values that reach zero are only 
+ * reclaimed by reclaim() once they have stayed at zero for the
+ * full grace period, so a value that is re-acquired quickly is
+ * never torn down and rebuilt. Reclamation can be driven manually
+ * or by a ScheduledExecutorService, and processes every expired
+ * value in a single sweep.
+ * 
+ * Counters with a grace period use scalable references, so a hot
+ * value's count may be striped across threads. A striped release 
+ * that provably leaves other references takes no lock; any release
+ * that may reach zero is made under the reference's monitor along
+ * with the stamp that starts its grace period.
+ * 
+ * Once a reference has been reclaimed its count() is negative and
+ * a subsequent acquire of an equal value interns a new reference.
+ */
+public final class ReclaimingReferenceCounter<V> {
+
+  public static interface ZeroListener<V> {
+    void onZero(V val);
+  }
+  
+  public static <V>ReclaimingReferenceCounter<V> create(
+    ZeroListener<? super V> listener) {
+      return new ReclaimingReferenceCounter<V>(listener, 0);
+  }
+  
+  public static <V>ReclaimingReferenceCounter<V> create(
+    ZeroListener<? super V> listener, 
+    long grace, 
+    TimeUnit unit) {
+      checkArgument(grace >= 0);
+      return new ReclaimingReferenceCounter<V>(
+        listener, unit.toNanos(grace));
+  }
+  
+  /**
+   * Creates a counter whose reclaim() sweep is run on the given
+   * executor once per grace period, until close() is called. The 
+   * scheduled task only holds the counter weakly and cancels itself
+   * once the counter has been garbage collected.
+   */
+  public static <V>ReclaimingReferenceCounter<V> create(
+    ZeroListener<? super V> listener, 
+    long grace, 
+    TimeUnit unit,
+    ScheduledExecutorService exec) {
+      checkArgument(grace > 0);
+      checkNotNull(exec);
+      ReclaimingReferenceCounter<V> counter = 
+        create(listener, grace, unit);
+      Sweep sweep = new Sweep(counter);
+      counter.sweep = sweep;
+      sweep.future = 
+        exec.scheduleWithFixedDelay(sweep, grace, grace, unit);
+      return counter;
+  }
+  
+  private final ConcurrentMap<V,CountingReference<V>> refs = 
+    Maps.newConcurrentMap();
+  private final ConcurrentMap<V,Long> zeroed = 
+    Maps.newConcurrentMap();
+  private final ZeroListener<? super V> listener;
+  private final long grace;
+  private volatile Sweep sweep;
+  
+  private ReclaimingReferenceCounter(
+    ZeroListener<? super V> listener, 
+    long grace) {
+    this.listener = checkNotNull(listener);
+    this.grace = grace;
+  }
+  
+  public CountingReference<V> acquire(V val) {
+    checkNotNull(val);
+    for (;;) {
+      CountingReference<V> r = refs.get(val);
+      if (r == null) {
+        CountingReference<V> n = 
+          grace == 0 ? ref(val) : scalableRef(val);
+        r = refs.putIfAbsent(val, n);
+        if (r == null) 
+          r = n;
+      }
+      if (r.tryIncrement())
+        return r;
+      refs.remove(val, r);
+    }
+  }
+  
+  public void release(V val) {
+    checkNotNull(val);
+    CountingReference<V> r = refs.get(val);
+    if (r == null)
+      return;
+    if (grace == 0) {
+      if (r.release())
+        retire(val, r);
+      return;
+    }
+    if (r.releaseUnlessLast())
+      return;
+    // stamping under the reference's monitor orders this release
+    // against reclaim() checking the stamp and retiring
+    synchronized(r) {
+      if (r.release())
+        zeroed.put(val, System.nanoTime());
+    }
+  }
+  
+  /**
+   * Reclaims every value that has remained at zero for at least
+   * the grace period, returning the number of values handed to 
+   * the listener.
+   */
+  public int reclaim() {
+    int n = 0;
+    long now = System.nanoTime();
+    for (Map.Entry<V,Long> entry : zeroed.entrySet()) {
+      Long stamp = entry.getValue();
+      if (now - stamp < grace)
+        continue;
+      V val = entry.getKey();
+      CountingReference<V> r = refs.get(val);
+      if (r == null) {
+        zeroed.remove(val, stamp);
+        continue;
+      }
+      boolean retired;
+      synchronized(r) {
+        // a release back to zero since the stamp was read has 
+        // replaced it, starting a new grace period
+        if (!zeroed.remove(val, stamp))
+          continue;
+        retired = r.tryRetire();
+      }
+      if (retired) {
+        refs.remove(val, r);
+        listener.onZero(val);
+        n++;
+      }
+    }
+    return n;
+  }
+  
+  /**
+   * Stops the scheduled reclaim() sweep, if this counter has one.
+   * The counter itself remains usable.
+   */
+  public void close() {
+    Sweep s = sweep;
+    if (s != null) 
+      s.future.cancel(false);
+  }
+  
+  public int size() {
+    return refs.size();
+  }
+  
+  private boolean retire(V val, CountingReference<V> r) {
+    if (!r.tryRetire())
+      return false;
+    refs.remove(val, r);
+    listener.onZero(val);
+    return true;
+  }
+  
+  private static final class Sweep implements Runnable {
+    private final WeakReference<ReclaimingReferenceCounter<?>> counter;
+    private volatile ScheduledFuture<?> future;
+    Sweep(ReclaimingReferenceCounter<?> counter) {
+      this.counter = 
+        new WeakReference<ReclaimingReferenceCounter<?>>(counter);
+    }
+    public void run() {
+      ReclaimingReferenceCounter<?> c = counter.get();
+      if (c != null)
+        c.reclaim();
+      else if (future != null)
+        future.cancel(false);
+    }
+  }
+}
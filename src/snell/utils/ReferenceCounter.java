@@ -1,45 +1,184 @@
 package snell.utils;
 
+import static com.google.common.base.Preconditions.checkNotNull;
 import static snell.utils.CountingReference.ref;
+import static snell.utils.CountingReference.scalableRef;
 
-import com.google.common.collect.Interner;
-import com.google.common.collect.Interners;
-import com.google.common.util.concurrent.Monitor;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.collect.MapMaker;
 
 /**
  * Basic reference counter implementation that uses a Guava 
- * WeakInterner instance to manage instances of the counter.
+ * weak-valued concurrent map to intern instances of the counter.
  * 
  * Calling acquire(V) returns the interned copy of the val
  * object. Objects used need to properly adhere to provide
  * override impls of equals and hashcode to ensure they'll
- * be interned properly. 
+ * be interned properly. The interned reference lives for as
+ * long as some caller holds on to it, exactly as with a 
+ * WeakInterner, but it is looked up by the value itself so 
+ * acquiring an already interned value allocates nothing.
  * 
  * Calling release releases the interned object and decrements
  * the reference counter.
+ * 
+ * No global lock is taken. The map is split into four segments 
+ * per processor and its lookups of already interned values are 
+ * lock-free, and the counts themselves are updated with 
+ * compare-and-set, so acquires and releases of different values 
+ * rarely contend, even on many cores.
+ * 
+ * Counters created with scalable() intern scalable references
+ * whose uncapped counts stripe themselves across threads when a
+ * single hot value becomes contended.
+ * 
+ * A ReferenceTracker can be attached to gather usage statistics
+ * and sampled leak reports.
  */
 public final class ReferenceCounter<V> {
-  private final Monitor monitor = 
-    new Monitor();
-  private final Interner<CountingReference<V>> interner = 
-    Interners.newWeakInterner();
+  
+  private static final Probe ACQUIRE = Probe.REFCOUNT_ACQUIRE;
+  private static final Probe RELEASE = Probe.REFCOUNT_RELEASE;
+  
+  private static final int DEFAULT_BATCH = 16;
+  private static final int CONCURRENCY = 
+    Math.max(16, Runtime.getRuntime().availableProcessors() * 4);
+  
+  public static <V>ReferenceCounter<V> scalable() {
+    return new ReferenceCounter<V>(true);
+  }
+  
+  private final boolean scalable;
+  private final ConcurrentMap<V,CountingReference<V>> refs = 
+    new MapMaker()
+      .concurrencyLevel(CONCURRENCY)
+      .weakValues()
+      .makeMap();
+  private volatile ReferenceTracker<V> tracker;
+  
+  public ReferenceCounter() {
+    this(false);
+  }
+  private ReferenceCounter(boolean scalable) {
+    this.scalable = scalable;
+  }
   private CountingReference<V> intern(V s) {
-    return interner.intern(ref(s));
+    CountingReference<V> r = refs.get(s);
+    if (r == null) {
+      CountingReference<V> n = 
+        scalable ? scalableRef(s) : ref(s);
+      r = refs.putIfAbsent(s, n);
+      if (r == null)
+        r = n;
+    }
+    return r;
+  }
+  void track(ReferenceTracker<V> tracker) {
+    this.tracker = tracker;
   }
   public CountingReference<V> acquire(V val) {
-    monitor.enter();
-    try {
-      return intern(val).increment();
-    } finally {
-      monitor.leave();
-    }
+    checkNotNull(val);
+    long start = ACQUIRE.begin();
+    CountingReference<V> r = intern(val).increment();
+    // count() sums every stripe of a scalable reference, only read it
+    // when the probe is actually timing this call
+    if (start != Probe.OFF)
+      ACQUIRE.end(start, null, r.count(), val);
+    ReferenceTracker<V> t = tracker;
+    if (t != null)
+      t.acquired(val);
+    return r;
   }
   public void release(V val) {
-    monitor.enter();
-    try {
-      intern(val).decrement();
-    } finally {
-      monitor.leave();
+    checkNotNull(val);
+    release(val, refs.get(val));
+  }
+  private void release(V val, CountingReference<V> r) {
+    long start = RELEASE.begin();
+    if (r != null)
+      r.decrement();
+    if (start != Probe.OFF)
+      RELEASE.end(start, null, r == null ? 0 : r.count(), val);
+    ReferenceTracker<V> t = tracker;
+    if (t != null)
+      t.released(val, r);
+  }
+  /**
+   * The number of distinct values currently interned.
+   */
+  public int size() {
+    return refs.size();
+  }
+  
+  /**
+   * Acquires every value in a single pass, returning the handles 
+   * in a new array. Pass that array back to 
+   * acquireAll(Iterable, CountingReference[]) to reuse it for 
+   * later batches.
+   */
+  public CountingReference<V>[] acquireAll(Iterable<? extends V> vals) {
+    checkNotNull(vals);
+    return acquireAll(vals, ReferenceCounter.<V>handles(
+      vals instanceof Collection ? 
+        ((Collection<?>)vals).size() : 
+        DEFAULT_BATCH));
+  }
+  
+  /**
+   * Acquires every value in a single pass. As with 
+   * Collection.toArray(T[]), the handles are written into the 
+   * given array if it is large enough, followed by a null if 
+   * there is room, so the same array can be reused from batch 
+   * to batch. Otherwise a new array is allocated and returned.
+   */
+  public CountingReference<V>[] acquireAll(
+    Iterable<? extends V> vals, 
+    CountingReference<V>[] handles) {
+    checkNotNull(vals);
+    checkNotNull(handles);
+    if (vals instanceof Collection) {
+      int size = ((Collection<?>)vals).size();
+      if (handles.length < size)
+        handles = Arrays.copyOf(handles, size);
+    }
+    int n = 0;
+    for (V val : vals) {
+      if (n == handles.length)
+        handles = Arrays.copyOf(
+          handles, n + Math.max(DEFAULT_BATCH, n >> 1));
+      handles[n++] = acquire(val);
+    }
+    if (n < handles.length)
+      handles[n] = null;
+    return handles;
+  }
+  
+  @SuppressWarnings("unchecked")
+  private static <V>CountingReference<V>[] handles(int size) {
+    return (CountingReference<V>[])new CountingReference<?>[size];
+  }
+  
+  public void releaseAll(Iterable<? extends V> vals) {
+    checkNotNull(vals);
+    for (V val : vals)
+      release(val);
+  }
+  
+  /**
+   * Releases handles previously returned by acquire or acquireAll
+   * directly, without looking the values up again. Stops at the 
+   * first null so the array returned by acquireAll can be passed
+   * back as is.
+   */
+  public void releaseAll(CountingReference<V>[] handles) {
+    checkNotNull(handles);
+    for (CountingReference<V> handle : handles) {
+      if (handle == null)
+        break;
+      release(handle.get(), handle);
     }
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,430 @@
+package snell.utils;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+
+/**
+ * Instrumentation for a ReferenceCounter. Once attached it keeps
+ * scalable acquire and release counters, an approximate top-N 
+ * sketch of the most frequently acquired values and, for a 
+ * configurable fraction of acquires, the stack trace of the 
+ * acquire site. Releases name a value, not a call site, so a sample 
+ * is only dropped once the value's outstanding count can no longer 
+ * account for it, newest first: the samples left are the longest 
+ * held sites of values that are still referenced, and anything 
+ * outstanding after a long time is a likely leak.
+ * 
+ * The hot value sketch uses the Space-Saving algorithm, striped per
+ * thread like StripedCounter so acquiring threads do not share a 
+ * lock, and is only updated on one in every HOT_SAMPLING acquires. 
+ * A counter with no tracker attached pays a single volatile read 
+ * per operation.
+ * 
+ * Rates are measured against a baseline that only moves when tick() 
+ * is called, so reading them (through snapshot() or, once registered
+ * with an MBeanServer, as a ReferenceTrackerMXBean) has no side 
+ * effects.
+ */
+public final class ReferenceTracker<V> 
+  implements ReferenceTrackerMXBean {
+
+  private static final int HOT_SAMPLING = 8;
+  
+  private static final ThreadLocal<Random> random = 
+    new ThreadLocal<Random>() {
+      protected Random initialValue() {
+        return new Random();
+      }
+    };
+  
+  /**
+   * Attaches a new tracker to the counter, replacing any existing 
+   * one. topN is the number of hot values to report (0 disables the 
+   * sketch) and leakSampling the fraction of acquires whose site is 
+   * recorded (0 disables leak tracking).
+   */
+  public static <V>ReferenceTracker<V> attach(
+    ReferenceCounter<V> counter, 
+    int topN, 
+    double leakSampling) {
+      checkArgument(topN >= 0);
+      checkArgument(leakSampling >= 0 && leakSampling <= 1);
+      ReferenceTracker<V> tracker = 
+        new ReferenceTracker<V>(counter, topN, leakSampling);
+      counter.track(tracker);
+      return tracker;
+  }
+  
+  public static <V>void detach(ReferenceCounter<V> counter) {
+    counter.track(null);
+  }
+  
+  private final ReferenceCounter<V> counter;
+  private final StripedCounter acquires = 
+    new StripedCounter();
+  private final StripedCounter releases = 
+    new StripedCounter();
+  private final int topN;
+  private final Sketch<V>[] hot;
+  private final double leakSampling;
+  private final ConcurrentMap<V,Deque<Sample<V>>> samples = 
+    Maps.newConcurrentMap();
+  private volatile Mark mark;
+  
+  @SuppressWarnings("unchecked")
+  private ReferenceTracker(
+    ReferenceCounter<V> counter, 
+    int topN, 
+    double leakSampling) {
+      this.counter = checkNotNull(counter);
+      this.topN = topN;
+      this.hot = (Sketch<V>[])new Sketch<?>[topN > 0 ? StripedCounter.STRIPES : 0];
+      for (int n = 0; n < hot.length; n++)
+        hot[n] = new Sketch<V>(topN * 4);
+      this.leakSampling = leakSampling;
+      this.mark = new Mark(System.nanoTime(), 0, 0);
+  }
+  
+  void acquired(V val) {
+    acquires.increment();
+    if (topN > 0 && random.get().nextInt(HOT_SAMPLING) == 0)
+      hot[StripedCounter.index()].hit(val);
+    if (leakSampling > 0 && random.get().nextDouble() < leakSampling)
+      sample(val);
+  }
+  
+  /**
+   * Called after the reference for val (null if val was not 
+   * interned) has been decremented
+   */
+  void released(V val, CountingReference<V> ref) {
+    releases.increment();
+    if (leakSampling > 0 && !samples.isEmpty()) {
+      Deque<Sample<V>> q = samples.get(val);
+      if (q != null) {
+        synchronized(q) {
+          // read under the lock: an acquire bumps the count before
+          // it can add its sample
+          long live = ref == null ? 0 : Math.max(0, ref.longCount());
+          while (q.size() > live)
+            q.pollLast();
+          if (q.isEmpty())
+            samples.remove(val, q);
+        }
+      }
+    }
+  }
+  
+  private void sample(V val) {
+    Sample<V> sample = 
+      new Sample<V>(val, new Throwable().getStackTrace());
+    for (;;) {
+      Deque<Sample<V>> q = samples.get(val);
+      if (q == null) {
+        Deque<Sample<V>> n = new ArrayDeque<Sample<V>>();
+        q = samples.putIfAbsent(val, n);
+        if (q == null)
+          q = n;
+      }
+      synchronized(q) {
+        // an emptied queue may have been removed since we found it
+        if (q.isEmpty() && samples.get(val) != q)
+          continue;
+        q.addLast(sample);
+        return;
+      }
+    }
+  }
+  
+  /**
+   * Moves the rate baseline to now, returning the rates measured
+   * since the previous tick as a snapshot
+   */
+  public Snapshot<V> tick() {
+    Snapshot<V> snapshot = snapshot();
+    mark = new Mark(
+      snapshot.nanos, 
+      snapshot.acquires, 
+      snapshot.releases);
+    return snapshot;
+  }
+  
+  public Snapshot<V> snapshot() {
+    return new Snapshot<V>(
+      System.nanoTime(),
+      counter.size(),
+      acquires.sum(),
+      releases.sum(),
+      mark,
+      hotValues(),
+      outstandingSamples());
+  }
+  
+  private List<Pair<V,Long>> hotValues() {
+    Map<V,Long> merged = Maps.newHashMap();
+    for (Sketch<V> sketch : hot)
+      sketch.addTo(merged);
+    List<Pair<V,Long>> top = 
+      new ArrayList<Pair<V,Long>>(merged.size());
+    for (Map.Entry<V,Long> entry : merged.entrySet())
+      top.add(Pair.of(entry.getKey(), entry.getValue() * HOT_SAMPLING));
+    Collections.sort(top, new Comparator<Pair<V,Long>>() {
+      public int compare(Pair<V,Long> a, Pair<V,Long> b) {
+        return b.two().compareTo(a.two());
+      }
+    });
+    return top.subList(0, Math.min(topN, top.size()));
+  }
+  
+  private List<Sample<V>> outstandingSamples() {
+    List<Sample<V>> outstanding = new ArrayList<Sample<V>>();
+    for (Deque<Sample<V>> q : samples.values())
+      synchronized(q) {
+        outstanding.addAll(q);
+      }
+    Collections.sort(outstanding, new Comparator<Sample<V>>() {
+      public int compare(Sample<V> a, Sample<V> b) {
+        return a.nanos < b.nanos ? -1 : a.nanos > b.nanos ? 1 : 0;
+      }
+    });
+    return outstanding;
+  }
+  
+  public int getLiveValues() {
+    return counter.size();
+  }
+  
+  public long getOutstandingReferences() {
+    return acquires.sum() - releases.sum();
+  }
+  
+  public long getAcquireCount() {
+    return acquires.sum();
+  }
+  
+  public long getReleaseCount() {
+    return releases.sum();
+  }
+  
+  public double getAcquireRate() {
+    return mark.acquireRate(System.nanoTime(), acquires.sum());
+  }
+  
+  public double getReleaseRate() {
+    return mark.releaseRate(System.nanoTime(), releases.sum());
+  }
+  
+  public String[] getHotValues() {
+    List<Pair<V,Long>> top = hotValues();
+    String[] ret = new String[top.size()];
+    for (int n = 0; n < ret.length; n++)
+      ret[n] = top.get(n).one() + "=" + top.get(n).two();
+    return ret;
+  }
+  
+  public String[] getOutstandingSamples() {
+    List<Sample<V>> outstanding = outstandingSamples();
+    String[] ret = new String[outstanding.size()];
+    for (int n = 0; n < ret.length; n++)
+      ret[n] = outstanding.get(n).toString();
+    return ret;
+  }
+  
+  /**
+   * The counters as of the last tick
+   */
+  private static final class Mark {
+    private final long nanos;
+    private final long acquires;
+    private final long releases;
+    Mark(long nanos, long acquires, long releases) {
+      this.nanos = nanos;
+      this.acquires = acquires;
+      this.releases = releases;
+    }
+    double acquireRate(long now, long count) {
+      return rate(now, count - acquires);
+    }
+    double releaseRate(long now, long count) {
+      return rate(now, count - releases);
+    }
+    private double rate(long now, long delta) {
+      return now > nanos ? delta / ((now - nanos) / 1e9) : 0;
+    }
+  }
+  
+  /**
+   * One stripe of the Space-Saving hot value sketch
+   */
+  private static final class Sketch<V> {
+    private final int capacity;
+    private final Map<V,long[]> counts;
+    Sketch(int capacity) {
+      this.capacity = capacity;
+      this.counts = Maps.newHashMapWithExpectedSize(capacity);
+    }
+    synchronized void hit(V val) {
+      long[] c = counts.get(val);
+      if (c != null) {
+        c[0]++;
+      } else if (counts.size() < capacity) {
+        counts.put(val, new long[] {1});
+      } else {
+        Map.Entry<V,long[]> min = null;
+        for (Map.Entry<V,long[]> entry : counts.entrySet())
+          if (min == null || entry.getValue()[0] < min.getValue()[0])
+            min = entry;
+        c = min.getValue();
+        counts.remove(min.getKey());
+        c[0]++;
+        counts.put(val, c);
+      }
+    }
+    synchronized void addTo(Map<V,Long> merged) {
+      for (Map.Entry<V,long[]> entry : counts.entrySet()) {
+        Long c = merged.get(entry.getKey());
+        merged.put(
+          entry.getKey(), 
+          (c == null ? 0 : c) + entry.getValue()[0]);
+      }
+    }
+  }
+  
+  /**
+   * An acquire whose call site was recorded and for which no 
+   * matching release has been seen yet.
+   */
+  public static final class Sample<V> {
+    private final V val;
+    private final StackTraceElement[] site;
+    private final long nanos = System.nanoTime();
+    Sample(V val, StackTraceElement[] site) {
+      this.val = val;
+      this.site = site;
+    }
+    public V value() {
+      return val;
+    }
+    public List<StackTraceElement> site() {
+      return Collections.unmodifiableList(Arrays.asList(site));
+    }
+    public long age(TimeUnit unit) {
+      return unit.convert(System.nanoTime() - nanos, TimeUnit.NANOSECONDS);
+    }
+    public String toString() {
+      StringBuilder buf = new StringBuilder();
+      Iterator<StackTraceElement> i = site().iterator();
+      while (i.hasNext()) {
+        StackTraceElement e = i.next();
+        // skip the tracker and counter frames
+        if (!e.getClassName().startsWith("snell.utils.Reference")) {
+          buf.append(e);
+          break;
+        }
+      }
+      return Objects.toStringHelper("Sample")
+        .add("value", val)
+        .add("ageMillis", age(TimeUnit.MILLISECONDS))
+        .add("site", buf)
+        .toString();
+    }
+  }
+  
+  /**
+   * Point-in-time view of a tracker. Rates are computed against the
+   * last tick().
+   */
+  public static final class Snapshot<V> {
+    private final long nanos;
+    private final int live;
+    private final long acquires;
+    private final long releases;
+    private final double acquireRate;
+    private final double releaseRate;
+    private final List<Pair<V,Long>> hot;
+    private final List<Sample<V>> outstanding;
+    Snapshot(
+      long nanos, 
+      int live, 
+      long acquires, 
+      long releases, 
+      Mark mark,
+      List<Pair<V,Long>> hot, 
+      List<Sample<V>> outstanding) {
+        this.nanos = nanos;
+        this.live = live;
+        this.acquires = acquires;
+        this.releases = releases;
+        this.hot = ImmutableList.copyOf(hot);
+        this.outstanding = ImmutableList.copyOf(outstanding);
+        this.acquireRate = mark.acquireRate(nanos, acquires);
+        this.releaseRate = mark.releaseRate(nanos, releases);
+    }
+    public int liveValues() {
+      return live;
+    }
+    public long outstandingReferences() {
+      return acquires - releases;
+    }
+    public long acquires() {
+      return acquires;
+    }
+    public long releases() {
+      return releases;
+    }
+    public double acquireRate() {
+      return acquireRate;
+    }
+    public double releaseRate() {
+      return releaseRate;
+    }
+    /**
+     * Most frequently acquired values with their estimated acquire 
+     * counts, hottest first.
+     */
+    public List<Pair<V,Long>> hotValues() {
+      return hot;
+    }
+    /**
+     * Sampled acquires not yet released, oldest first.
+     */
+    public List<Sample<V>> outstandingSamples() {
+      return outstanding;
+    }
+    public List<Sample<V>> outstandingSamples(long age, TimeUnit unit) {
+      List<Sample<V>> ret = new ArrayList<Sample<V>>();
+      for (Sample<V> sample : outstanding)
+        if (sample.age(unit) >= age)
+          ret.add(sample);
+      return ret;
+    }
+    public String toString() {
+      return Objects.toStringHelper("Snapshot")
+        .add("live", live)
+        .add("acquires", acquires)
+        .add("releases", releases)
+        .add("acquireRate", acquireRate)
+        .add("releaseRate", releaseRate)
+        .add("hot", hot)
+        .add("outstanding", outstanding.size())
+        .toString();
+    }
+  }
+}
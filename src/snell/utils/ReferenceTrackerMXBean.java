@@ -0,0 +1,17 @@
+package snell.utils;
+
+/**
+ * JMX view of a ReferenceTracker. Rates are per second over the 
+ * interval since the tracker's last tick(); reading attributes 
+ * never moves that baseline.
+ */
+public interface ReferenceTrackerMXBean {
+  int getLiveValues();
+  long getOutstandingReferences();
+  long getAcquireCount();
+  long getReleaseCount();
+  double getAcquireRate();
+  double getReleaseRate();
+  String[] getHotValues();
+  String[] getOutstandingSamples();
+}
@@ -0,0 +1,232 @@
+package snell.utils;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Throwables.propagate;
+import static org.apache.commons.codec.binary.Base64.decodeBase64;
+import static org.apache.commons.codec.binary.Base64.encodeBase64URLSafeString;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.security.Key;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import javax.crypto.Mac;
+
+import com.google.common.base.Objects;
+
+/**
+ * MACs HTTP style requests in a canonical form, without building
+ * the form in memory. The canonical form is
+ *
+ * <pre>
+ *   METHOD \n
+ *   path \n
+ *   name:value \n     (for each header)
+ *   \n
+ *   body
+ * </pre>
+ *
+ * where the method is upper cased, header names are lower cased and
+ * stably sorted case insensitively (so repeated headers keep their
+ * order), and header values are trimmed with inner whitespace runs
+ * collapsed to a single space. The form is UTF-8 encoded through a
+ * small reused buffer straight into a reused Mac, followed by the
+ * content of the (blocking) body channels. Signing and verification
+ * share the same code path. A RequestSigner holds an initialized Mac
+ * and is not thread safe, use one per thread.
+ */
+public final class RequestSigner {
+
+  private static final Comparator<Pair<String,String>> BY_NAME =
+    new Comparator<Pair<String,String>>() {
+      public int compare(Pair<String,String> a, Pair<String,String> b) {
+        return String.CASE_INSENSITIVE_ORDER.compare(a.one(), b.one());
+      }
+    };
+
+  public static RequestSigner create(Key key, String alg) {
+    checkNotNull(key);
+    checkNotNull(alg);
+    try {
+      return new RequestSigner(Providers.mac(alg, key));
+    } catch (Throwable t) {
+      throw propagate(t);
+    }
+  }
+
+  private final Mac mac;
+  private final byte[] out = new byte[512];
+  private int pos;
+  private ByteBuffer body;
+  private Object[] rows = new Object[16];
+
+  private RequestSigner(Mac mac) {
+    this.mac = mac;
+  }
+
+  /**
+   * Returns the base64url MAC of the request, consuming the body
+   * channels
+   */
+  public String sign(
+    String method,
+    String path,
+    Iterable<Pair<String,String>> headers,
+    ReadableByteChannel... body) {
+      return encodeBase64URLSafeString(
+        mac(method, path, headers, body));
+  }
+
+  public boolean verify(
+    String signature,
+    String method,
+    String path,
+    Iterable<Pair<String,String>> headers,
+    ReadableByteChannel... body) {
+      return verify(
+        decodeBase64(checkNotNull(signature)),
+        method, path, headers, body);
+  }
+
+  public boolean verify(
+    byte[] signature,
+    String method,
+    String path,
+    Iterable<Pair<String,String>> headers,
+    ReadableByteChannel... body) {
+      checkNotNull(signature);
+      return MessageDigest.isEqual(
+        mac(method, path, headers, body), signature);
+  }
+
+  /**
+   * Returns the raw MAC of the request, consuming the body channels
+   */
+  @SuppressWarnings("unchecked")
+  public byte[] mac(
+    String method,
+    String path,
+    Iterable<Pair<String,String>> headers,
+    ReadableByteChannel... body) {
+      checkNotNull(method);
+      checkNotNull(path);
+      checkNotNull(headers);
+      checkNotNull(body);
+      int size = 0;
+      for (Pair<String,String> header : headers) {
+        checkName(header.one());
+        if (size == rows.length)
+          rows = Arrays.copyOf(rows, Columns.grow(size, size + 1));
+        rows[size++] = header;
+      }
+      int[] order = Columns.order(rows, size, BY_NAME);
+      try {
+        pos = 0;
+        putLine(method, true);
+        putLine(path, false);
+        for (int n = 0; n < size; n++) {
+          Pair<String,String> header = (Pair<String,String>)rows[order[n]];
+          String name = header.one();
+          for (int i = 0; i < name.length(); i++)
+            put(Character.toLowerCase(name.charAt(i)));
+          put(':');
+          putValue(header.two());
+          put('\n');
+        }
+        put('\n');
+        flush();
+        for (ReadableByteChannel channel : body)
+          update(checkNotNull(channel));
+        return mac.doFinal();
+      } finally {
+        Arrays.fill(rows, 0, size, null);
+        // leave the Mac clean if we failed midway
+        mac.reset();
+      }
+  }
+
+  public String toString() {
+    return Objects.toStringHelper("RequestSigner")
+      .add("alg", mac.getAlgorithm())
+      .toString();
+  }
+
+  private static void checkName(String name) {
+    checkNotNull(name);
+    checkArgument(name.length() > 0, "Empty header name");
+    for (int n = 0; n < name.length(); n++) {
+      char c = name.charAt(n);
+      checkArgument(
+        c > ' ' && c != ':' && c != 0x7F,
+        "Invalid header name %s", name);
+    }
+  }
+
+  /**
+   * Writes a request line, rejecting line breaks which would make 
+   * the form ambiguous
+   */
+  private void putLine(String line, boolean upper) {
+    for (int n = 0; n < line.length(); ) {
+      int cp = Utf8.codePointAt(line, n);
+      checkArgument(
+        cp != '\n' && cp != '\r', 
+        "Line break in request line");
+      put(upper ? Character.toUpperCase(cp) : cp);
+      n += Character.charCount(cp);
+    }
+    put('\n');
+  }
+
+  /**
+   * Writes the value trimmed with inner whitespace collapsed
+   */
+  private void putValue(String val) {
+    if (val == null)
+      return;
+    boolean space = false, started = false;
+    for (int n = 0; n < val.length(); ) {
+      int cp = Utf8.codePointAt(val, n);
+      if (Character.isWhitespace(cp)) {
+        space = started;
+      } else {
+        if (space)
+          put(' ');
+        put(cp);
+        space = false;
+        started = true;
+      }
+      n += Character.charCount(cp);
+    }
+  }
+
+  private void put(int cp) {
+    if (out.length - pos < Utf8.MAX_BYTES)
+      flush();
+    pos = Utf8.put(out, pos, cp);
+  }
+
+  private void flush() {
+    mac.update(out, 0, pos);
+    pos = 0;
+  }
+
+  private void update(ReadableByteChannel channel) {
+    if (body == null)
+      body = ByteBuffer.allocateDirect(8192);
+    try {
+      body.clear();
+      while (channel.read(body) >= 0) {
+        body.flip();
+        mac.update(body);
+        body.clear();
+      }
+    } catch (IOException e) {
+      throw propagate(e);
+    }
+  }
+}
@@ -0,0 +1,452 @@
+package snell.utils;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Throwables.propagate;
+
+import java.nio.ByteBuffer;
+import java.security.Key;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.crypto.Mac;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Compact signed token of the form header.claims.signature, each
+ * part base64url encoded without padding. The header is a version
+ * byte followed by the algorithm name, the claims are a sequence of
+ * name/value strings framed as in Codecs.STRING, and the signature
+ * (a MAC, or a public key signature when signing with a PrivateKey)
+ * is computed over the ASCII text of header.claims.
+ *
+ * Encoders write tokens in a single pass into reusable buffers.
+ * Decoders verify the signature over the byte range of the original
+ * input before anything else is decoded; claims are only decoded
+ * when first asked for. Encoders and Decoders hold an initialized
+ * Mac or Signature and are not thread safe, use one per thread.
+ */
+public final class SignedToken {
+
+  private static final byte VERSION = 1;
+
+  private static final byte[] ENC =
+    "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_"
+      .getBytes(Charsets.US_ASCII);
+  private static final byte[] DEC = new byte[128];
+  static {
+    Arrays.fill(DEC, (byte)-1);
+    for (int n = 0; n < ENC.length; n++)
+      DEC[ENC[n]] = (byte)n;
+  }
+
+  public static Encoder encoder(Key key, String alg) {
+    return new Encoder(engine(key, alg, true), alg);
+  }
+
+  public static Decoder decoder(Key key, String alg) {
+    return new Decoder(engine(key, alg, false), alg);
+  }
+
+  private final String alg;
+  private final byte[] input;
+  private final int claims;
+  private final int claimsEnd;
+  private volatile List<Pair<String,String>> decoded;
+
+  private SignedToken(
+    String alg,
+    byte[] input,
+    int claims,
+    int claimsEnd) {
+      this.alg = alg;
+      this.input = input;
+      this.claims = claims;
+      this.claimsEnd = claimsEnd;
+  }
+
+  public String algorithm() {
+    return alg;
+  }
+
+  /**
+   * The claims, decoded on first use
+   */
+  public List<Pair<String,String>> claims() {
+    List<Pair<String,String>> list = decoded;
+    if (list == null) {
+      byte[] raw = new byte[decodedLength(claimsEnd - claims)];
+      if (unbase64(input, claims, claimsEnd, raw, 0) < 0)
+        throw new IllegalStateException("Malformed claims");
+      ByteBuffer buf = ByteBuffer.wrap(raw);
+      ImmutableList.Builder<Pair<String,String>> builder =
+        ImmutableList.builder();
+      int pos = 0;
+      try {
+        while (pos < raw.length) {
+          int l = Codecs.STRING.length(buf, pos);
+          String name = Codecs.STRING.read(buf, pos);
+          int m = Codecs.STRING.length(buf, pos + l);
+          String value = Codecs.STRING.read(buf, pos + l);
+          builder.add(Pair.of(name,value));
+          pos += l + m;
+        }
+      } catch (IndexOutOfBoundsException e) {
+        throw new IllegalStateException("Malformed claims", e);
+      }
+      decoded = list = builder.build();
+    }
+    return list;
+  }
+
+  /**
+   * The value of the first claim with the given name, or null
+   */
+  public String claim(String name) {
+    checkNotNull(name);
+    for (Pair<String,String> claim : claims())
+      if (name.equals(claim.one()))
+        return claim.two();
+    return null;
+  }
+
+  public String toString() {
+    return new String(input, Charsets.US_ASCII);
+  }
+
+  public static final class Encoder {
+    private final Engine engine;
+    private final byte[] header;
+    private ByteBuffer raw = ByteBuffer.allocate(256);
+    private byte[] out = new byte[512];
+    private Encoder(Engine engine, String alg) {
+      this.engine = engine;
+      this.header = header(alg);
+    }
+
+    public String encode(Iterable<Pair<String,String>> claims) {
+      checkNotNull(claims);
+      ByteBuffer raw = this.raw;
+      raw.clear();
+      for (Pair<String,String> claim : claims) {
+        checkNotNull(claim.one());
+        raw = putUtf8(raw, claim.one());
+        raw = putUtf8(raw, claim.two());
+      }
+      this.raw = raw;
+      int len = raw.position();
+      int size = header.length + 1 + encodedLength(len);
+      ensure(size + 1 + encodedLength(engine.length()));
+      byte[] out = this.out;
+      System.arraycopy(header, 0, out, 0, header.length);
+      out[header.length] = '.';
+      base64(raw.array(), 0, len, out, header.length + 1);
+      engine.update(out, 0, size);
+      byte[] sig = engine.sign();
+      ensure(size + 1 + encodedLength(sig.length));
+      out = this.out;
+      out[size] = '.';
+      int end = base64(sig, 0, sig.length, out, size + 1);
+      return new String(out, 0, end, Charsets.US_ASCII);
+    }
+
+    private void ensure(int size) {
+      if (out.length < size)
+        out = new byte[Math.max(size, out.length * 2)];
+    }
+
+    public String toString() {
+      return Objects.toStringHelper("Encoder")
+        .add("engine", engine)
+        .toString();
+    }
+  }
+
+  public static final class Decoder {
+    private final Engine engine;
+    private final String alg;
+    private final byte[] header;
+    private byte[] sig;
+    private Decoder(Engine engine, String alg) {
+      this.engine = engine;
+      this.alg = alg;
+      this.header = header(alg);
+      this.sig = new byte[Math.max(engine.length(), 256)];
+    }
+
+    /**
+     * Parses and verifies the token, returning null if it is
+     * malformed, not of this Decoder's algorithm, or its
+     * signature does not verify
+     */
+    public SignedToken parse(String token) {
+      checkNotNull(token);
+      int len = token.length();
+      byte[] input = new byte[len];
+      for (int n = 0; n < len; n++) {
+        char c = token.charAt(n);
+        if (c > 0x7F)
+          return null;
+        input[n] = (byte)c;
+      }
+      return parse(input);
+    }
+
+    /**
+     * Parses and verifies the token held in the given ASCII bytes,
+     * which are retained by the returned SignedToken and must not
+     * be modified
+     */
+    public SignedToken parse(byte[] input) {
+      checkNotNull(input);
+      int h = header.length;
+      if (input.length <= h || input[h] != '.')
+        return null;
+      for (int n = 0; n < h; n++)
+        if (input[n] != header[n])
+          return null;
+      int dot = h + 1;
+      while (dot < input.length && input[dot] != '.')
+        dot++;
+      int len = decodedLength(input.length - dot - 1);
+      if (len <= 0 || decodedLength(dot - h - 1) < 0)
+        return null;
+      if (len > sig.length)
+        sig = new byte[len];
+      int slen = unbase64(input, dot + 1, input.length, sig, 0);
+      if (slen < 0)
+        return null;
+      engine.update(input, 0, dot);
+      if (!engine.verify(sig, slen))
+        return null;
+      return new SignedToken(alg, input, h + 1, dot);
+    }
+
+    public String toString() {
+      return Objects.toStringHelper("Decoder")
+        .add("engine", engine)
+        .toString();
+    }
+  }
+
+  private static byte[] header(String alg) {
+    checkNotNull(alg);
+    ByteBuffer buf =
+      ByteBuffer.allocate(1 + Codecs.STRING.size(alg));
+    buf.put(VERSION);
+    Codecs.STRING.write(buf, alg);
+    byte[] out = new byte[encodedLength(buf.capacity())];
+    base64(buf.array(), 0, buf.capacity(), out, 0);
+    return out;
+  }
+
+  /**
+   * Writes the string framed as in Codecs.STRING, encoding the
+   * UTF-8 directly into the buffer, growing it as needed
+   */
+  private static ByteBuffer putUtf8(ByteBuffer buf, String val) {
+    if (val == null) {
+      buf = grow(buf, 1);
+      buf.put((byte)0);
+      return buf;
+    }
+    int size = Utf8.length(val);
+    buf = grow(buf, Codecs.varintSize(size + 1) + size);
+    Codecs.putVarint(buf, size + 1);
+    Utf8.write(buf, val);
+    return buf;
+  }
+
+  private static ByteBuffer grow(ByteBuffer buf, int size) {
+    if (buf.remaining() >= size)
+      return buf;
+    ByteBuffer n = ByteBuffer.allocate(
+      Math.max(buf.capacity() * 2, buf.position() + size));
+    buf.flip();
+    n.put(buf);
+    return n;
+  }
+
+  private static int encodedLength(int len) {
+    return (len / 3) * 4 + (len % 3 == 0 ? 0 : len % 3 + 1);
+  }
+
+  private static int decodedLength(int len) {
+    return len % 4 == 1 ? -1 : (len / 4) * 3 + Math.max(0, len % 4 - 1);
+  }
+
+  private static int base64(
+    byte[] src, int off, int len,
+    byte[] dst, int pos) {
+      int end = off + len - len % 3;
+      for (int n = off; n < end; n += 3) {
+        int b = (src[n] & 0xFF) << 16 |
+                (src[n + 1] & 0xFF) << 8 |
+                (src[n + 2] & 0xFF);
+        dst[pos++] = ENC[b >>> 18];
+        dst[pos++] = ENC[(b >>> 12) & 0x3F];
+        dst[pos++] = ENC[(b >>> 6) & 0x3F];
+        dst[pos++] = ENC[b & 0x3F];
+      }
+      switch(len % 3) {
+      case 1: {
+        int b = src[end] & 0xFF;
+        dst[pos++] = ENC[b >>> 2];
+        dst[pos++] = ENC[(b << 4) & 0x3F];
+        break;
+      }
+      case 2: {
+        int b = (src[end] & 0xFF) << 8 | (src[end + 1] & 0xFF);
+        dst[pos++] = ENC[b >>> 10];
+        dst[pos++] = ENC[(b >>> 4) & 0x3F];
+        dst[pos++] = ENC[(b << 2) & 0x3F];
+        break;
+      }
+      }
+      return pos;
+  }
+
+  /**
+   * Decodes unpadded base64url from src[off,end) into dst, returning
+   * the number of bytes written or -1 if the input is not canonical
+   * base64url
+   */
+  private static int unbase64(
+    byte[] src, int off, int end,
+    byte[] dst, int pos) {
+      int start = pos, b = 0, bits = 0;
+      for (int n = off; n < end; n++) {
+        int c = src[n];
+        int d = c < 0 ? -1 : DEC[c];
+        if (d < 0)
+          return -1;
+        b = (b << 6) | d;
+        bits += 6;
+        if (bits >= 8) {
+          bits -= 8;
+          dst[pos++] = (byte)(b >>> bits);
+          b &= (1 << bits) - 1;
+        }
+      }
+      return bits >= 6 || b != 0 ? -1 : pos - start;
+  }
+
+  private static Engine engine(Key key, String alg, boolean sign) {
+    checkNotNull(key);
+    checkNotNull(alg);
+    try {
+      if (key instanceof PrivateKey) {
+        checkArgument(sign, "Tokens are verified with a PublicKey");
+        return new SignatureEngine(
+          Providers.signer(alg, (PrivateKey)key), key);
+      } else if (key instanceof PublicKey) {
+        checkArgument(!sign, "Tokens are signed with a PrivateKey");
+        return new SignatureEngine(
+          Providers.verifier(alg, (PublicKey)key), key);
+      } else {
+        return new MacEngine(Providers.mac(alg, key));
+      }
+    } catch (Throwable t) {
+      throw propagate(t);
+    }
+  }
+
+  private static abstract class Engine {
+    abstract int length();
+    abstract void update(byte[] dat, int off, int len);
+    abstract byte[] sign();
+    abstract boolean verify(byte[] sig, int len);
+  }
+
+  private static final class MacEngine extends Engine {
+    private final Mac mac;
+    private final byte[] buf;
+    MacEngine(Mac mac) {
+      this.mac = mac;
+      this.buf = new byte[mac.getMacLength()];
+    }
+    int length() {
+      return buf.length;
+    }
+    void update(byte[] dat, int off, int len) {
+      mac.update(dat, off, len);
+    }
+    byte[] sign() {
+      try {
+        mac.doFinal(buf, 0);
+        return buf;
+      } catch (Throwable t) {
+        throw propagate(t);
+      }
+    }
+    boolean verify(byte[] sig, int len) {
+      byte[] dat = sign();
+      return len == dat.length &&
+        MessageDigest.isEqual(dat, Arrays.copyOf(sig, len));
+    }
+    public String toString() {
+      return mac.getAlgorithm();
+    }
+  }
+
+  /**
+   * A Signature that fails midway (say on a malformed signature) is
+   * left in an unusable state, so it is initialized again before 
+   * the failure is reported
+   */
+  private static final class SignatureEngine extends Engine {
+    private final Signature sig;
+    private final Key key;
+    SignatureEngine(Signature sig, Key key) {
+      this.sig = sig;
+      this.key = key;
+    }
+    int length() {
+      return 0;
+    }
+    void update(byte[] dat, int off, int len) {
+      try {
+        sig.update(dat, off, len);
+      } catch (Throwable t) {
+        reset();
+        throw propagate(t);
+      }
+    }
+    byte[] sign() {
+      try {
+        return sig.sign();
+      } catch (Throwable t) {
+        reset();
+        throw propagate(t);
+      }
+    }
+    boolean verify(byte[] dat, int len) {
+      try {
+        return sig.verify(dat, 0, len);
+      } catch (Throwable t) {
+        reset();
+        return false;
+      }
+    }
+    private void reset() {
+      try {
+        if (key instanceof PrivateKey)
+          sig.initSign((PrivateKey)key);
+        else
+          sig.initVerify((PublicKey)key);
+      } catch (Throwable t) {
+        throw propagate(t);
+      }
+    }
+    public String toString() {
+      return sig.getAlgorithm();
+    }
+  }
+}
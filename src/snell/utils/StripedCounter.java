@@ -0,0 +1,211 @@
+package snell.utils;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 64-bit counter backing scalable CountingReference instances. 
+ * 
+ * The counter starts out as a single AtomicLong. Once repeated 
+ * compare-and-set failures show that it is contended it inflates
+ * into an array of cache-line padded cells indexed by thread, so 
+ * that hot references no longer put every core on one cache line.
+ * 
+ * While striped, individual cells may go negative (a value can be
+ * acquired on one thread and released on another) and only the sum
+ * is meaningful. A decrement applied to a cell therefore checks the
+ * sum afterwards: if it is still positive this cannot have been the
+ * last reference, otherwise the decrement is moved back to the base
+ * and redone under the monitor after collapsing the cells, so zero 
+ * is detected exactly and by one caller only. collapse() freezes 
+ * every cell, folds the sum back into the base and returns the 
+ * exact count. Operations that race a collapse see the frozen 
+ * cell, wait for it to finish and retry against the base.
+ * 
+ * A retired counter has a base of -1 and refuses further increments.
+ */
+final class StripedCounter {
+
+  private static final long FROZEN = Long.MIN_VALUE;
+  private static final int PAD = 8;
+  private static final int CONTENDED = 64;
+  static final int STRIPES = 
+    stripes(Runtime.getRuntime().availableProcessors());
+  
+  private static int stripes(int n) {
+    int s = 1;
+    while (s < n) s <<= 1;
+    return s;
+  }
+  
+  private final AtomicLong base = 
+    new AtomicLong(0);
+  private volatile AtomicLongArray cells;
+  private final AtomicInteger contention = 
+    new AtomicInteger(0);
+  
+  boolean increment() {
+    for (;;) {
+      AtomicLongArray cs = cells;
+      if (cs != null) {
+        if (add(cs, 1))
+          return true;
+        await();
+        continue;
+      }
+      long n = base.get();
+      if (n < 0)
+        return false;
+      if (n == Long.MAX_VALUE)
+        throw new IllegalStateException("Reference count overflow");
+      if (base.compareAndSet(n, n + 1))
+        return true;
+      contended();
+    }
+  }
+  
+  /**
+   * Returns true only if this call took the count to exactly zero
+   */
+  boolean decrement() {
+    for (;;) {
+      if (decrementUnlessLast())
+        return false;
+      if (cells != null)
+        return decrementCollapsed();
+      long n = base.get();
+      if (n <= 0) {
+        if (cells == null)
+          return false;
+        continue;
+      }
+      if (base.compareAndSet(n, n - 1)) {
+        if (n != 1)
+          return false;
+        if (cells == null)
+          return true;
+        // inflated under us, a zero base alone proves nothing
+        undo();
+        return decrementCollapsed();
+      }
+      contended();
+    }
+  }
+  
+  /**
+   * Decrements a striped count when the sum shows it cannot have 
+   * been the last reference. Returns false, leaving the count 
+   * unchanged, if the counter is not striped or the decrement may 
+   * reach zero, in which case decrement() has to be used.
+   */
+  boolean decrementUnlessLast() {
+    AtomicLongArray cs = cells;
+    if (cs == null)
+      return false;
+    if (!add(cs, -1)) {
+      await();
+      return false;
+    }
+    if (sum() > 0)
+      return true;
+    undo();
+    return false;
+  }
+  
+  /**
+   * Puts back a cell decrement through the base, which is valid 
+   * whether or not the cells have been collapsed since
+   */
+  private void undo() {
+    for (;;) {
+      long n = base.get();
+      if (n < 0 || base.compareAndSet(n, n + 1))
+        return;
+    }
+  }
+  
+  private synchronized boolean decrementCollapsed() {
+    collapse();
+    for (;;) {
+      long n = base.get();
+      if (n <= 0)
+        return false;
+      if (base.compareAndSet(n, n - 1))
+        return n == 1;
+    }
+  }
+  
+  boolean striped() {
+    return cells != null;
+  }
+  
+  /**
+   * Approximate count. Exact unless a concurrent update or 
+   * collapse is in progress.
+   */
+  long sum() {
+    long n = base.get();
+    AtomicLongArray cs = cells;
+    if (cs != null && n >= 0) {
+      for (int i = 0; i < cs.length(); i += PAD) {
+        long v = cs.get(i);
+        if (v != FROZEN)
+          n += v;
+      }
+    }
+    return n;
+  }
+  
+  synchronized long collapse() {
+    AtomicLongArray cs = cells;
+    if (cs != null) {
+      long sum = 0;
+      for (int i = 0; i < cs.length(); i += PAD)
+        sum += cs.getAndSet(i, FROZEN);
+      for (;;) {
+        long n = base.get();
+        if (base.compareAndSet(n, Math.max(0, n + sum)))
+          break;
+      }
+      contention.set(0);
+      cells = null;
+    }
+    return base.get();
+  }
+  
+  synchronized boolean retire() {
+    collapse();
+    return base.compareAndSet(0, -1);
+  }
+  
+  private static boolean add(AtomicLongArray cs, long d) {
+    int i = index() * PAD;
+    for (;;) {
+      long v = cs.get(i);
+      if (v == FROZEN)
+        return false;
+      if (cs.compareAndSet(i, v, v + d))
+        return true;
+    }
+  }
+  
+  static int index() {
+    long id = Thread.currentThread().getId();
+    return (int)((id * 0x9E3779B97F4A7C15L) >>> 32) & (STRIPES - 1);
+  }
+  
+  private void contended() {
+    if (contention.incrementAndGet() >= CONTENDED && STRIPES > 1)
+      inflate();
+  }
+  
+  private synchronized void inflate() {
+    if (cells == null && base.get() >= 0)
+      cells = new AtomicLongArray(STRIPES * PAD);
+  }
+  
+  private synchronized void await() {
+    // a collapse holds this monitor until the cells are released
+  }
+}
@@ -0,0 +1,345 @@
+package snell.utils;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Throwables.propagate;
+import static org.apache.commons.codec.binary.Base64.encodeBase64URLSafeString;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.Key;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import javax.crypto.Mac;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.Lists;
+
+/**
+ * Tree mode MAC for large files. The file is split into fixed size
+ * chunks, each chunk is digested from a read only mapping of its
+ * region (in parallel when given an ExecutorService), and the chunk
+ * digests are combined into a keyed root MAC over the file length,
+ * chunk size and the digests in order. The resulting Tree keeps the
+ * chunk digests so individual chunks can later be verified or
+ * updated without rehashing the whole file.
+ */
+public final class TreeMac {
+
+  public static final String DEFAULT_DIGEST = "SHA-256";
+  public static final int DEFAULT_CHUNK_SIZE = 4 << 20;
+
+  public static TreeMac create(Key key, String alg) {
+    return create(key, alg, DEFAULT_DIGEST, DEFAULT_CHUNK_SIZE);
+  }
+
+  public static TreeMac create(
+    Key key,
+    String alg,
+    String digest,
+    int chunkSize) {
+      return new TreeMac(key, alg, digest, chunkSize);
+  }
+
+  private final Key key;
+  private final String alg;
+  private final String digest;
+  private final int chunkSize;
+
+  private TreeMac(
+    Key key,
+    String alg,
+    String digest,
+    int chunkSize) {
+      checkArgument(chunkSize > 0);
+      this.key = checkNotNull(key);
+      this.alg = checkNotNull(alg);
+      this.digest = checkNotNull(digest);
+      this.chunkSize = chunkSize;
+      // fail fast on unknown algorithms
+      newMac();
+      newDigest();
+  }
+
+  public int chunkSize() {
+    return chunkSize;
+  }
+
+  /**
+   * Hashes the whole file in the calling thread
+   */
+  public Tree hash(FileChannel channel) {
+    return hash(channel, null);
+  }
+
+  /**
+   * Hashes the whole file, digesting the chunks on the executor
+   */
+  public Tree hash(FileChannel channel, ExecutorService exec) {
+    long length = size(channel);
+    byte[][] digests = new byte[chunkCount(length)][];
+    digestChunks(channel, length, 0, digests.length, digests, exec);
+    return new Tree(length, digests);
+  }
+
+  /**
+   * Rebuilds a Tree from its encoded form, returning null if the
+   * root does not match, i.e. the encoding was not produced with
+   * this key and these parameters or has been altered
+   */
+  public Tree decode(byte[] dat) {
+    checkNotNull(dat);
+    try {
+      ByteBuffer buf = ByteBuffer.wrap(dat);
+      long length = buf.getLong();
+      if (buf.getInt() != chunkSize || length < 0)
+        return null;
+      int count = buf.getInt();
+      int size = newDigest().getDigestLength();
+      if (count != chunkCount(length) ||
+          buf.remaining() != (long)count * size + newMac().getMacLength())
+        return null;
+      byte[][] digests = new byte[count][size];
+      for (byte[] d : digests)
+        buf.get(d);
+      byte[] root = new byte[buf.remaining()];
+      buf.get(root);
+      Tree tree = new Tree(length, digests);
+      return MessageDigest.isEqual(root, tree.root) ? tree : null;
+    } catch (RuntimeException e) {
+      return null;
+    }
+  }
+
+  public String toString() {
+    return Objects.toStringHelper("TreeMac")
+      .add("alg", alg)
+      .add("digest", digest)
+      .add("chunkSize", chunkSize)
+      .toString();
+  }
+
+  private int chunkCount(long length) {
+    long chunks = (length + chunkSize - 1) / chunkSize;
+    checkArgument(chunks <= Integer.MAX_VALUE, "File too large");
+    return (int)chunks;
+  }
+
+  private Mac newMac() {
+    try {
+      return Providers.mac(alg, key);
+    } catch (Throwable t) {
+      throw propagate(t);
+    }
+  }
+
+  private MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance(digest);
+    } catch (Throwable t) {
+      throw propagate(t);
+    }
+  }
+
+  private static long size(FileChannel channel) {
+    try {
+      return channel.size();
+    } catch (IOException e) {
+      throw propagate(e);
+    }
+  }
+
+  /**
+   * Digests chunks [from,to) of the file into digests
+   */
+  private void digestChunks(
+    final FileChannel channel,
+    final long length,
+    int from,
+    int to,
+    final byte[][] digests,
+    ExecutorService exec) {
+      if (exec == null || to - from < 2) {
+        MessageDigest md = newDigest();
+        for (int n = from; n < to; n++)
+          digests[n] = digestChunk(md, channel, length, n);
+        return;
+      }
+      List<Callable<Void>> tasks = Lists.newArrayListWithCapacity(to - from);
+      for (int n = from; n < to; n++) {
+        final int chunk = n;
+        tasks.add(new Callable<Void>() {
+          public Void call() {
+            digests[chunk] = digestChunk(newDigest(), channel, length, chunk);
+            return null;
+          }
+        });
+      }
+      try {
+        for (Future<Void> future : exec.invokeAll(tasks))
+          future.get();
+      } catch (ExecutionException e) {
+        throw propagate(e.getCause());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw propagate(e);
+      }
+  }
+
+  private byte[] digestChunk(
+    MessageDigest md,
+    FileChannel channel,
+    long length,
+    int chunk) {
+      long offset = (long)chunk * chunkSize;
+      long size = Math.min(chunkSize, length - offset);
+      try {
+        md.update(channel.map(FileChannel.MapMode.READ_ONLY, offset, size));
+        return md.digest();
+      } catch (IOException e) {
+        throw propagate(e);
+      }
+  }
+
+  /**
+   * The chunk digests and keyed root of a file. Trees are immutable,
+   * updates return a new Tree sharing the unchanged digests.
+   */
+  public final class Tree {
+    private final long length;
+    private final byte[][] digests;
+    private final byte[] root;
+
+    private Tree(long length, byte[][] digests) {
+      this.length = length;
+      this.digests = digests;
+      this.root = root(length, digests);
+    }
+
+    public long length() {
+      return length;
+    }
+
+    public int chunks() {
+      return digests.length;
+    }
+
+    public byte[] digest(int chunk) {
+      checkElementIndex(chunk, digests.length);
+      return digests[chunk].clone();
+    }
+
+    public byte[] root() {
+      return root.clone();
+    }
+
+    /**
+     * True if the chunk's current content in the file matches
+     */
+    public boolean verify(FileChannel channel, int chunk) {
+      checkElementIndex(chunk, digests.length);
+      if (size(channel) != length)
+        return false;
+      return MessageDigest.isEqual(
+        digests[chunk],
+        TreeMac.this.digestChunk(newDigest(), channel, length, chunk));
+    }
+
+    /**
+     * Returns the indices of the chunks that no longer match the
+     * file, rehashing the chunks on the executor (may be null).
+     * If the file length changed every chunk is reported.
+     */
+    public int[] verify(FileChannel channel, ExecutorService exec) {
+      int[] all = new int[digests.length];
+      for (int n = 0; n < all.length; n++)
+        all[n] = n;
+      if (size(channel) != length)
+        return all;
+      byte[][] current = new byte[digests.length][];
+      TreeMac.this.digestChunks(channel, length, 0, current.length, current, exec);
+      int c = 0;
+      for (int n = 0; n < current.length; n++)
+        if (!MessageDigest.isEqual(digests[n], current[n]))
+          all[c++] = n;
+      return Arrays.copyOf(all, c);
+    }
+
+    /**
+     * True if this tree's root equals the given root, e.g. one
+     * stored alongside the file
+     */
+    public boolean verify(byte[] root) {
+      return MessageDigest.isEqual(this.root, checkNotNull(root));
+    }
+
+    /**
+     * Returns the tree for the file after the given byte range was
+     * rewritten, only rehashing the chunks it touches (and the last
+     * chunk when the file length changed)
+     */
+    public Tree update(
+      FileChannel channel,
+      long offset,
+      long len,
+      ExecutorService exec) {
+        checkArgument(offset >= 0 && len >= 0);
+        long size = size(channel);
+        int count = chunkCount(size);
+        byte[][] updated = Arrays.copyOf(digests, count);
+        int from = (int)Math.min(count, offset / chunkSize);
+        int to = len == 0 ? from :
+          (int)Math.min(count, (offset + len - 1) / chunkSize + 1);
+        TreeMac.this.digestChunks(channel, size, from, to, updated, exec);
+        if (size != length) {
+          int last = Math.min(digests.length, count) - 1;
+          if (last >= 0 && (last < from || last >= to))
+            TreeMac.this.digestChunks(channel, size, last, last + 1, updated, exec);
+          for (int n = digests.length; n < count; n++)
+            if (n < from || n >= to)
+              TreeMac.this.digestChunks(channel, size, n, n + 1, updated, exec);
+        }
+        return new Tree(size, updated);
+    }
+
+    /**
+     * length, chunk size, chunk count, digests, root
+     */
+    public byte[] encode() {
+      int size = digests.length == 0 ? 0 : digests[0].length;
+      ByteBuffer buf = ByteBuffer.allocate(
+        16 + digests.length * size + root.length);
+      buf.putLong(length);
+      buf.putInt(chunkSize);
+      buf.putInt(digests.length);
+      for (byte[] d : digests)
+        buf.put(d);
+      buf.put(root);
+      return buf.array();
+    }
+
+    public String toString() {
+      return encodeBase64URLSafeString(root);
+    }
+
+    private byte[] root(long length, byte[][] digests) {
+      Mac mac = newMac();
+      ByteBuffer header = ByteBuffer.allocate(16);
+      header.putLong(length);
+      header.putInt(chunkSize);
+      header.putInt(digests.length);
+      mac.update(header.array());
+      for (byte[] d : digests)
+        mac.update(d);
+      return mac.doFinal();
+    }
+  }
+}
@@ -55,6 +55,14 @@ public class Triple<V1,V2,V3> {
     return v3;
   }
   
+  /**
+   * Returns the canonical instance equal to this one
+   * @see Tuples#canonical
+   */
+  public final Triple<V1,V2,V3> intern() {
+    return Tuples.canonical(this);
+  }
+  
   public String toString() {
     return Objects.toStringHelper("Triple")
       .add("one", one())
@@ -78,6 +86,8 @@ public class Triple<V1,V2,V3> {
     if (getClass() != obj.getClass()) 
       return false;
     Triple<V1,V2,V3> other = (Triple<V1,V2,V3>) obj;
+    if (hash != 1 && other.hash != 1 && hash != other.hash)
+      return false;
     if (!Objects.equal(v1,other.v1) || 
         !Objects.equal(v2,other.v2) ||
         !Objects.equal(v3,other.v3)) 
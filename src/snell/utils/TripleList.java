@@ -0,0 +1,211 @@
+package snell.utils;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+
+/**
+ * Columnar list of triples. Rather than holding a Triple object per 
+ * element, each component is kept in its own array, which saves 
+ * the per-element object header, cached hash and reference and 
+ * keeps scans over one component sequential in memory.
+ * 
+ * Rows can be sorted by any component and then binary searched
+ * on that component. Iterating with a Cursor allocates nothing; 
+ * get(int) materializes a Triple only when one is really needed.
+ * See PairList.
+ * Not thread-safe.
+ */
+public final class TripleList<V1,V2,V3> {
+
+  public static <V1,V2,V3>TripleList<V1,V2,V3> create() {
+    return new TripleList<V1,V2,V3>(Columns.DEFAULT_CAPACITY);
+  }
+  
+  public static <V1,V2,V3>TripleList<V1,V2,V3> createWithExpectedSize(int expectedSize) {
+    checkArgument(expectedSize >= 0);
+    return new TripleList<V1,V2,V3>(expectedSize);
+  }
+  
+  private Object[] ones;
+  private Object[] twos;
+  private Object[] threes;
+  private int size;
+  
+  private TripleList(int capacity) {
+    ones = new Object[capacity];
+    twos = new Object[capacity];
+    threes = new Object[capacity];
+  }
+  
+  private void ensureCapacity(int needed) {
+    if (needed > ones.length) {
+      int capacity = Columns.grow(ones.length, needed);
+      ones = Arrays.copyOf(ones, capacity);
+      twos = Arrays.copyOf(twos, capacity);
+      threes = Arrays.copyOf(threes, capacity);
+    }
+  }
+  
+  public TripleList<V1,V2,V3> add(V1 v1, V2 v2, V3 v3) {
+    ensureCapacity(size + 1);
+    ones[size] = v1;
+    twos[size] = v2;
+    threes[size] = v3;
+    size++;
+    return this;
+  }
+  
+  public TripleList<V1,V2,V3> add(Triple<? extends V1,? extends V2,? extends V3> triple) {
+    return add(triple.one(), triple.two(), triple.three());
+  }
+  
+  public TripleList<V1,V2,V3> addAll(Iterable<? extends Triple<? extends V1,? extends V2,? extends V3>> triples) {
+    checkNotNull(triples);
+    if (triples instanceof Collection)
+      ensureCapacity(size + ((Collection<?>)triples).size());
+    for (Triple<? extends V1,? extends V2,? extends V3> triple : triples)
+      add(triple.one(), triple.two(), triple.three());
+    return this;
+  }
+  
+  public TripleList<V1,V2,V3> addAll(TripleList<? extends V1,? extends V2,? extends V3> other) {
+    ensureCapacity(size + other.size);
+    System.arraycopy(other.ones, 0, ones, size, other.size);
+    System.arraycopy(other.twos, 0, twos, size, other.size);
+    System.arraycopy(other.threes, 0, threes, size, other.size);
+    size += other.size;
+    return this;
+  }
+  
+  @SuppressWarnings("unchecked")
+  public V1 one(int index) {
+    checkElementIndex(index, size);
+    return (V1) ones[index];
+  }
+  
+  @SuppressWarnings("unchecked")
+  public V2 two(int index) {
+    checkElementIndex(index, size);
+    return (V2) twos[index];
+  }
+  
+  @SuppressWarnings("unchecked")
+  public V3 three(int index) {
+    checkElementIndex(index, size);
+    return (V3) threes[index];
+  }
+  
+  public Triple<V1,V2,V3> get(int index) {
+    return Triple.of(one(index), two(index), three(index));
+  }
+  
+  public int size() {
+    return size;
+  }
+  
+  public boolean isEmpty() {
+    return size == 0;
+  }
+  
+  public void clear() {
+    Arrays.fill(ones, 0, size, null);
+    Arrays.fill(twos, 0, size, null);
+    Arrays.fill(threes, 0, size, null);
+    size = 0;
+  }
+  
+  public void trimToSize() {
+    ones = Arrays.copyOf(ones, size);
+    twos = Arrays.copyOf(twos, size);
+    threes = Arrays.copyOf(threes, size);
+  }
+  
+  /**
+   * Stably sorts the rows by their first component
+   */
+  public TripleList<V1,V2,V3> sortByOne(Comparator<? super V1> cmp) {
+    return reorder(Columns.order(ones, size, checkNotNull(cmp)));
+  }
+  
+  /**
+   * Stably sorts the rows by their second component
+   */
+  public TripleList<V1,V2,V3> sortByTwo(Comparator<? super V2> cmp) {
+    return reorder(Columns.order(twos, size, checkNotNull(cmp)));
+  }
+  
+  /**
+   * Stably sorts the rows by their third component
+   */
+  public TripleList<V1,V2,V3> sortByThree(Comparator<? super V3> cmp) {
+    return reorder(Columns.order(threes, size, checkNotNull(cmp)));
+  }
+  
+  private TripleList<V1,V2,V3> reorder(int[] order) {
+    ones = Columns.permute(ones, order);
+    twos = Columns.permute(twos, order);
+    threes = Columns.permute(threes, order);
+    return this;
+  }
+  
+  /**
+   * Binary searches a list sorted by sortByOne with the same 
+   * comparator, returning the first matching row or 
+   * -(insertion point) - 1
+   */
+  public int searchOne(V1 key, Comparator<? super V1> cmp) {
+    return Columns.search(ones, size, key, cmp);
+  }
+  
+  public int searchTwo(V2 key, Comparator<? super V2> cmp) {
+    return Columns.search(twos, size, key, cmp);
+  }
+  
+  public int searchThree(V3 key, Comparator<? super V3> cmp) {
+    return Columns.search(threes, size, key, cmp);
+  }
+  
+  /**
+   * Returns a cursor positioned before the first row. A cursor can
+   * be rewound with reset() and reused, so iterating allocates 
+   * nothing beyond the cursor itself.
+   */
+  public Cursor<V1,V2,V3> cursor() {
+    return new Cursor<V1,V2,V3>(this);
+  }
+  
+  public static final class Cursor<V1,V2,V3> {
+    private final TripleList<V1,V2,V3> list;
+    private int index = -1;
+    Cursor(TripleList<V1,V2,V3> list) {
+      this.list = list;
+    }
+    public boolean next() {
+      return ++index < list.size;
+    }
+    public Cursor<V1,V2,V3> reset() {
+      index = -1;
+      return this;
+    }
+    public int index() {
+      return index;
+    }
+    @SuppressWarnings("unchecked")
+    public V1 one() {
+      return (V1) list.ones[index];
+    }
+    @SuppressWarnings("unchecked")
+    public V2 two() {
+      return (V2) list.twos[index];
+    }
+    @SuppressWarnings("unchecked")
+    public V3 three() {
+      return (V3) list.threes[index];
+    }
+  }
+}
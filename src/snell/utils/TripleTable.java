@@ -0,0 +1,134 @@
+package snell.utils;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Collection;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.Lists;
+
+/**
+ * Immutable two-key lookup table, (V1,V2) -> V3, built from Triples.
+ * The components are copied into column arrays and indexed by an 
+ * open-addressing table hashed over the first two components 
+ * directly, so get(one, two) never allocates a composite key and 
+ * building never allocates intermediate Pairs. Rows keep their 
+ * insertion order; when two triples share a key the later one's 
+ * third component wins. Null components are permitted.
+ */
+public final class TripleTable<V1,V2,V3> {
+
+  public static <V1,V2,V3>TripleTable<V1,V2,V3> copyOf(
+    Iterable<? extends Triple<? extends V1,? extends V2,? extends V3>> triples) {
+      checkNotNull(triples);
+      Collection<? extends Triple<? extends V1,? extends V2,? extends V3>> c = 
+        triples instanceof Collection ? 
+          (Collection<? extends Triple<? extends V1,? extends V2,? extends V3>>) triples : 
+          Lists.newArrayList(triples);
+      return new TripleTable<V1,V2,V3>(c);
+  }
+  
+  static int hash(Object one, Object two) {
+    int h = 31 * (31 + (one == null ? 0 : one.hashCode())) + 
+      (two == null ? 0 : two.hashCode());
+    return h ^ (h >>> 16);
+  }
+  
+  private final Object[] ones;
+  private final Object[] twos;
+  private final Object[] threes;
+  private final int[] slots;
+  private final int mask;
+  private final int size;
+  
+  private TripleTable(
+    Collection<? extends Triple<? extends V1,? extends V2,? extends V3>> triples) {
+      int expected = triples.size();
+      ones = new Object[expected];
+      twos = new Object[expected];
+      threes = new Object[expected];
+      slots = new int[IntPairMap.capacity(expected)];
+      mask = slots.length - 1;
+      int n = 0;
+      for (Triple<? extends V1,? extends V2,? extends V3> triple : triples) {
+        int i = hash(triple.one(), triple.two()) & mask;
+        int row;
+        while ((row = slots[i] - 1) >= 0 && 
+          !(Objects.equal(ones[row], triple.one()) && 
+            Objects.equal(twos[row], triple.two())))
+          i = (i + 1) & mask;
+        if (row < 0) {
+          row = n++;
+          slots[i] = row + 1;
+          ones[row] = triple.one();
+          twos[row] = triple.two();
+        }
+        threes[row] = triple.three();
+      }
+      size = n;
+  }
+  
+  private int find(Object one, Object two) {
+    int i = hash(one, two) & mask;
+    int row;
+    while ((row = slots[i] - 1) >= 0) {
+      if (Objects.equal(ones[row], one) && 
+          Objects.equal(twos[row], two))
+        return row;
+      i = (i + 1) & mask;
+    }
+    return -1;
+  }
+  
+  @SuppressWarnings("unchecked")
+  public V3 get(Object one, Object two) {
+    int row = find(one, two);
+    return row < 0 ? null : (V3) threes[row];
+  }
+  
+  public boolean contains(Object one, Object two) {
+    return find(one, two) >= 0;
+  }
+  
+  public int size() {
+    return size;
+  }
+  
+  public boolean isEmpty() {
+    return size == 0;
+  }
+  
+  /**
+   * Returns a reusable cursor over the rows in insertion order
+   */
+  public Cursor<V1,V2,V3> cursor() {
+    return new Cursor<V1,V2,V3>(this);
+  }
+  
+  public static final class Cursor<V1,V2,V3> {
+    private final TripleTable<V1,V2,V3> table;
+    private int index = -1;
+    Cursor(TripleTable<V1,V2,V3> table) {
+      this.table = table;
+    }
+    public boolean next() {
+      return ++index < table.size;
+    }
+    public Cursor<V1,V2,V3> reset() {
+      index = -1;
+      return this;
+    }
+    @SuppressWarnings("unchecked")
+    public V1 one() {
+      return (V1) table.ones[index];
+    }
+    @SuppressWarnings("unchecked")
+    public V2 two() {
+      return (V2) table.twos[index];
+    }
+    @SuppressWarnings("unchecked")
+    public V3 three() {
+      return (V3) table.threes[index];
+    }
+  }
+}
@@ -0,0 +1,104 @@
+package snell.utils;
+
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Flyweight over a buffer of triples written with Codecs.triple. The 
+ * view walks the records between the buffer's position and limit 
+ * like a cursor and decodes each component straight out of the 
+ * buffer only when asked for, so scanning a large (possibly memory
+ * mapped) file allocates nothing beyond the components actually 
+ * read. The buffer itself is never modified.
+ */
+public final class TripleView<V1,V2,V3> {
+
+  public static <V1,V2,V3>TripleView<V1,V2,V3> over(
+    ByteBuffer buf, 
+    Codec<V1> one, 
+    Codec<V2> two,
+    Codec<V3> three) {
+      return new TripleView<V1,V2,V3>(buf, one, two, three);
+  }
+  
+  private final ByteBuffer buf;
+  private final Codec<V1> one;
+  private final Codec<V2> two;
+  private final Codec<V3> three;
+  private final int start;
+  private int offset = -1;
+  private int split;
+  private int split2;
+  private int end;
+  
+  private TripleView(
+    ByteBuffer buf, 
+    Codec<V1> one, 
+    Codec<V2> two,
+    Codec<V3> three) {
+      this.buf = checkNotNull(buf);
+      this.one = checkNotNull(one);
+      this.two = checkNotNull(two);
+      this.three = checkNotNull(three);
+      this.start = buf.position();
+      this.end = start;
+  }
+  
+  /**
+   * Advances to the next record, returning false at the limit
+   */
+  public boolean next() {
+    if (end >= buf.limit())
+      return false;
+    at(end);
+    return true;
+  }
+  
+  /**
+   * Positions the view on the record at the given absolute offset,
+   * which must lie between the buffer's starting position and limit
+   */
+  public TripleView<V1,V2,V3> at(int offset) {
+    checkElementIndex(offset - start, buf.limit() - start);
+    this.offset = offset;
+    this.split = offset + one.length(buf, offset);
+    this.split2 = split + two.length(buf, split);
+    this.end = split2 + three.length(buf, split2);
+    return this;
+  }
+  
+  public TripleView<V1,V2,V3> reset() {
+    offset = -1;
+    end = start;
+    return this;
+  }
+  
+  /**
+   * The absolute offset of the current record
+   */
+  public int offset() {
+    return offset;
+  }
+  
+  public int length() {
+    return end - offset;
+  }
+  
+  public V1 one() {
+    return one.read(buf, offset);
+  }
+  
+  public V2 two() {
+    return two.read(buf, split);
+  }
+  
+  public V3 three() {
+    return three.read(buf, split2);
+  }
+  
+  public Triple<V1,V2,V3> get() {
+    return Triple.of(one(), two(), three());
+  }
+}
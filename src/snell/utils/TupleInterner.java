@@ -0,0 +1,94 @@
+package snell.utils;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.base.Objects;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+/**
+ * Canonicalizes equal tuples (or any other values) to a single 
+ * shared instance so that duplicate-heavy data sets keep one copy
+ * of each distinct value, and so that equality checks between 
+ * canonical instances short-circuit on identity. Lookups rely on 
+ * the tuple's cached hashCode.
+ * 
+ * A weak interner keeps canonical instances only for as long as 
+ * something else references them; a bounded interner keeps at most 
+ * a fixed number of them, evicting the least recently used. Both 
+ * are safe for concurrent use and keep deduplication statistics.
+ */
+public final class TupleInterner<T> {
+
+  public static <T>TupleInterner<T> weak() {
+    final Interner<T> interner = Interners.newWeakInterner();
+    return new TupleInterner<T>(interner);
+  }
+  
+  public static <T>TupleInterner<T> bounded(int maximumSize) {
+    checkArgument(maximumSize > 0);
+    final ConcurrentMap<T,T> map = 
+      CacheBuilder.newBuilder()
+        .maximumSize(maximumSize)
+        .<T,T>build()
+        .asMap();
+    return new TupleInterner<T>(new Interner<T>() {
+      public T intern(T sample) {
+        T canonical = map.putIfAbsent(sample, sample);
+        return canonical != null ? canonical : sample;
+      }
+    });
+  }
+  
+  private final Interner<T> interner;
+  private final StripedCounter requests = 
+    new StripedCounter();
+  private final StripedCounter hits = 
+    new StripedCounter();
+  
+  private TupleInterner(Interner<T> interner) {
+    this.interner = interner;
+  }
+  
+  /**
+   * Returns the canonical instance equal to the given value
+   */
+  public T intern(T val) {
+    T canonical = interner.intern(checkNotNull(val));
+    requests.increment();
+    if (canonical != val)
+      hits.increment();
+    return canonical;
+  }
+  
+  /**
+   * Total number of intern calls
+   */
+  public long requests() {
+    return requests.sum();
+  }
+  
+  /**
+   * Number of intern calls that returned an existing instance, 
+   * i.e. the number of duplicate copies the caller could discard
+   */
+  public long hits() {
+    return hits.sum();
+  }
+  
+  public double hitRate() {
+    long r = requests();
+    return r == 0 ? 0 : (double) hits() / r;
+  }
+  
+  public String toString() {
+    return Objects.toStringHelper("TupleInterner")
+      .add("requests", requests())
+      .add("hits", hits())
+      .toString();
+  }
+}
@@ -0,0 +1,43 @@
+package snell.utils;
+
+/**
+ * Opt-in canonicalization of Pair and Triple instances through 
+ * shared weak TupleInterners. Code that produces large numbers of 
+ * duplicate tuples, e.g. repeated (tenant, region) keys, can call 
+ * canonical() (or Pair.intern() / Triple.intern()) to keep just one
+ * live instance per distinct value. Use a bounded TupleInterner 
+ * directly where the set of values should not be open-ended.
+ */
+public final class Tuples {
+
+  private Tuples() {}
+  
+  private static final TupleInterner<Pair<?,?>> pairs = 
+    TupleInterner.weak();
+  private static final TupleInterner<Triple<?,?,?>> triples = 
+    TupleInterner.weak();
+  
+  @SuppressWarnings("unchecked")
+  public static <V1,V2>Pair<V1,V2> canonical(Pair<V1,V2> pair) {
+    return (Pair<V1,V2>) pairs.intern(pair);
+  }
+  
+  @SuppressWarnings("unchecked")
+  public static <V1,V2,V3>Triple<V1,V2,V3> canonical(Triple<V1,V2,V3> triple) {
+    return (Triple<V1,V2,V3>) triples.intern(triple);
+  }
+  
+  /**
+   * The interner behind canonical(Pair), for its statistics
+   */
+  public static TupleInterner<Pair<?,?>> pairInterner() {
+    return pairs;
+  }
+  
+  /**
+   * The interner behind canonical(Triple), for its statistics
+   */
+  public static TupleInterner<Triple<?,?,?>> tripleInterner() {
+    return triples;
+  }
+}
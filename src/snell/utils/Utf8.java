@@ -0,0 +1,89 @@
+package snell.utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * UTF-8 encoding straight from chars into byte arrays and buffers,
+ * for the streaming encoders (SignedToken, RequestSigner) that
+ * cannot afford String.getBytes copies. Unpaired surrogates are
+ * replaced with '?', as String.getBytes does, so the output always
+ * matches it.
+ */
+final class Utf8 {
+
+  private Utf8() {}
+
+  /**
+   * The most bytes a single code point encodes to
+   */
+  static final int MAX_BYTES = 4;
+
+  /**
+   * The code point at index i, or '?' for an unpaired surrogate.
+   * Advance by Character.charCount of the result.
+   */
+  static int codePointAt(CharSequence s, int i) {
+    char c = s.charAt(i);
+    if (c < Character.MIN_SURROGATE || c > Character.MAX_SURROGATE)
+      return c;
+    if (Character.isHighSurrogate(c) && i + 1 < s.length()) {
+      char d = s.charAt(i + 1);
+      if (Character.isLowSurrogate(d))
+        return Character.toCodePoint(c, d);
+    }
+    return '?';
+  }
+
+  static int length(int cp) {
+    return cp < 0x80 ? 1 : cp < 0x800 ? 2 : cp < 0x10000 ? 3 : 4;
+  }
+
+  static int length(CharSequence s) {
+    int size = 0;
+    for (int n = 0; n < s.length(); ) {
+      int cp = codePointAt(s, n);
+      size += length(cp);
+      n += Character.charCount(cp);
+    }
+    return size;
+  }
+
+  /**
+   * Encodes the code point at out[pos], returning the position
+   * after it. out must have room for MAX_BYTES.
+   */
+  static int put(byte[] out, int pos, int cp) {
+    if (cp < 0x80) {
+      out[pos++] = (byte)cp;
+    } else if (cp < 0x800) {
+      out[pos++] = (byte)(0xC0 | (cp >> 6));
+      out[pos++] = (byte)(0x80 | (cp & 0x3F));
+    } else if (cp < 0x10000) {
+      out[pos++] = (byte)(0xE0 | (cp >> 12));
+      out[pos++] = (byte)(0x80 | ((cp >> 6) & 0x3F));
+      out[pos++] = (byte)(0x80 | (cp & 0x3F));
+    } else {
+      out[pos++] = (byte)(0xF0 | (cp >> 18));
+      out[pos++] = (byte)(0x80 | ((cp >> 12) & 0x3F));
+      out[pos++] = (byte)(0x80 | ((cp >> 6) & 0x3F));
+      out[pos++] = (byte)(0x80 | (cp & 0x3F));
+    }
+    return pos;
+  }
+
+  /**
+   * Encodes s at the buffer's position, which must have room for
+   * length(s) bytes
+   */
+  static void write(ByteBuffer buf, CharSequence s) {
+    byte[] tmp = new byte[MAX_BYTES];
+    for (int n = 0; n < s.length(); ) {
+      int cp = codePointAt(s, n);
+      if (cp < 0x80)
+        buf.put((byte)cp);
+      else
+        buf.put(tmp, 0, put(tmp, 0, cp));
+      n += Character.charCount(cp);
+    }
+  }
+}
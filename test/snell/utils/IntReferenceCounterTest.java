@@ -0,0 +1,36 @@
+package snell.utils;
+
+import junit.framework.TestCase;
+
+public class IntReferenceCounterTest extends TestCase {
+
+  private static final int KEYS = 4000000;
+
+  public void testCounts() {
+    IntReferenceCounter c = new IntReferenceCounter();
+    assertEquals(1, c.acquire(7));
+    assertEquals(2, c.acquire(7));
+    assertEquals(1, c.release(7));
+    assertEquals(0, c.release(7));
+    assertEquals(0, c.release(7));
+    assertEquals(0, c.count(7));
+    assertEquals(0, c.size());
+  }
+
+  /**
+   * Millions of keys grow each segment's table well past 65536
+   * slots, where slot and segment bits taken from one 32-bit hash
+   * used to overlap and probing degraded to a crawl
+   */
+  public void testMillionsOfKeys() {
+    IntReferenceCounter c = new IntReferenceCounter();
+    for (int n = 0; n < KEYS; n++)
+      assertEquals(1, c.acquire(n));
+    assertEquals(KEYS, c.size());
+    for (int n = 0; n < KEYS; n += 2)
+      assertEquals(0, c.release(n));
+    assertEquals(KEYS / 2, c.size());
+    for (int n = 0; n < KEYS; n++)
+      assertEquals(n & 1, c.count(n));
+  }
+}
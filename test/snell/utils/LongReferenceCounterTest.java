@@ -0,0 +1,30 @@
+package snell.utils;
+
+import junit.framework.TestCase;
+
+public class LongReferenceCounterTest extends TestCase {
+
+  private static final int KEYS = 4000000;
+
+  public void testCounts() {
+    LongReferenceCounter c = new LongReferenceCounter();
+    assertEquals(1, c.acquire(1L << 40));
+    assertEquals(2, c.acquire(1L << 40));
+    assertEquals(0, c.count(1));
+    assertEquals(1, c.release(1L << 40));
+    assertEquals(0, c.release(1L << 40));
+    assertEquals(0, c.size());
+  }
+
+  public void testMillionsOfKeys() {
+    LongReferenceCounter c = new LongReferenceCounter();
+    for (long n = 0; n < KEYS; n++)
+      assertEquals(1, c.acquire(n << 32));
+    assertEquals(KEYS, c.size());
+    for (long n = 0; n < KEYS; n += 2)
+      assertEquals(0, c.release(n << 32));
+    assertEquals(KEYS / 2, c.size());
+    for (long n = 0; n < KEYS; n++)
+      assertEquals((int)(n & 1), c.count(n << 32));
+  }
+}
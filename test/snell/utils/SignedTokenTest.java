@@ -0,0 +1,47 @@
+package snell.utils;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.Collections;
+import java.util.List;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import junit.framework.TestCase;
+
+public class SignedTokenTest extends TestCase {
+
+  private static final List<Pair<String,String>> CLAIMS = 
+    Collections.singletonList(Pair.of("sub", "alice"));
+
+  public void testMacRoundTrip() {
+    SecretKeySpec key = new SecretKeySpec(new byte[32], "HmacSHA256");
+    String token = SignedToken.encoder(key, "HmacSHA256").encode(CLAIMS);
+    SignedToken.Decoder decoder = SignedToken.decoder(key, "HmacSHA256");
+    assertNull(decoder.parse(token + "AA"));
+    SignedToken parsed = decoder.parse(token);
+    assertNotNull(parsed);
+    assertEquals("alice", parsed.claim("sub"));
+  }
+
+  /**
+   * A signature that is not even well formed makes Signature.verify
+   * throw part way through, which must not leave the Decoder
+   * rejecting every token after it
+   */
+  public void testBadSignatureThenGood() throws Exception {
+    KeyPairGenerator gen = KeyPairGenerator.getInstance("EC");
+    gen.initialize(256);
+    KeyPair pair = gen.generateKeyPair();
+    String alg = "SHA256withECDSA";
+    String token = SignedToken.encoder(pair.getPrivate(), alg).encode(CLAIMS);
+    String bad = token.substring(0, token.lastIndexOf('.') + 1) + "AAAA";
+    SignedToken.Decoder decoder = SignedToken.decoder(pair.getPublic(), alg);
+    for (int n = 0; n < 3; n++) {
+      assertNull(decoder.parse(bad));
+      SignedToken parsed = decoder.parse(token);
+      assertNotNull(parsed);
+      assertEquals("alice", parsed.claim("sub"));
+    }
+  }
+}